@@ -0,0 +1,132 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell.benchmarks;
+
+import net.middell.EmbeddedExist;
+import net.middell.ExistDatabase;
+import net.middell.SyncManifest;
+import net.middell.Synchronizer;
+import net.middell.Uploader;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Base of sync benchmarks: starts an embedded instance and uploads a synthetic collection tree,
+ * which is then synced into a local directory.
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public abstract class AbstractSyncBenchmark {
+
+    /**
+     * The collection, the synthetic tree is uploaded to.
+     */
+    protected static final URI COLLECTION = EmbeddedExist.ROOT.resolve("benchmark/");
+
+    /**
+     * Log of benchmarked components, only reporting warnings and errors.
+     */
+    protected static final Log LOG = new DefaultLog(new ConsoleLogger(Logger.LEVEL_WARN, "sync"));
+
+    @Param({ "3" })
+    public int depth;
+
+    @Param({ "4" })
+    public int fanOut;
+
+    @Param({ "10" })
+    public int resources;
+
+    @Param({ "4096" })
+    public int resourceSize;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "true", "false" })
+    public boolean pruning;
+
+    @Param({ "0" })
+    public int pageSize;
+
+    protected Path work;
+    protected Path source;
+    protected Path target;
+    protected Path manifestFile;
+    protected List<Path> files;
+    protected EmbeddedExist exist;
+    protected ExistDatabase db;
+    protected SortedMap<URI, File> mappings;
+
+    @Setup
+    public void startDatabase() throws Exception {
+        work = Files.createTempDirectory("existdb-benchmark");
+        source = work.resolve("source");
+        target = work.resolve("target");
+        manifestFile = work.resolve("sync.manifest");
+
+        exist = new EmbeddedExist(work.resolve("exist"));
+        db = exist.database();
+
+        files = Trees.generate(source, depth, fanOut, resources, resourceSize);
+        final SortedMap<URI, File> upload = new TreeMap<>();
+        upload.put(COLLECTION, source.toFile());
+        new Uploader(db, LOG).push(upload);
+
+        mappings = new TreeMap<>();
+        mappings.put(COLLECTION, target.toFile());
+    }
+
+    @TearDown
+    public void stopDatabase() throws Exception {
+        db.close();
+        exist.close();
+        Trees.delete(work);
+    }
+
+    /**
+     * Syncs the collection tree into the local directory, recording its state in the manifest.
+     *
+     * @return the manifest
+     * @throws Exception in case of errors while syncing
+     */
+    protected SyncManifest sync() throws Exception {
+        final SyncManifest manifest = SyncManifest.load(manifestFile, new byte[0]);
+        final Synchronizer synchronizer = new Synchronizer(db, LOG);
+        synchronizer.setManifest(manifest);
+        synchronizer.setThreads(threads);
+        synchronizer.setPruning(pruning);
+        synchronizer.setPageSize(pageSize);
+        synchronizer.sync(mappings);
+        manifest.store();
+        return manifest;
+    }
+}
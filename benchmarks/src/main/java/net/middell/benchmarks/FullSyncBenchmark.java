@@ -0,0 +1,59 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell.benchmarks;
+
+import net.middell.SyncManifest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs a collection tree into an empty directory.
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FullSyncBenchmark extends AbstractSyncBenchmark {
+
+    @Setup(Level.Invocation)
+    public void clear() throws Exception {
+        Trees.delete(target);
+        Files.deleteIfExists(manifestFile);
+    }
+
+    @Benchmark
+    public SyncManifest fullSync() throws Exception {
+        return sync();
+    }
+}
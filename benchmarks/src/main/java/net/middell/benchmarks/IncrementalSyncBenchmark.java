@@ -0,0 +1,92 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell.benchmarks;
+
+import net.middell.ExistDatabase;
+import net.middell.SyncManifest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs a collection tree into a directory, after some resources have been modified in the
+ * database.
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IncrementalSyncBenchmark extends AbstractSyncBenchmark {
+
+    @Param({ "10" })
+    public int modified;
+
+    private final Random random = new Random(42);
+
+    @Setup(Level.Iteration)
+    public void prime() throws Exception {
+        sync();
+    }
+
+    @Setup(Level.Invocation)
+    public void modify() throws Exception {
+        final long now = System.currentTimeMillis();
+        for (int mc = 0; mc < modified; mc++) {
+            final Path file = files.get(random.nextInt(files.size()));
+            final Path parent = source.relativize(file.getParent());
+            final URI collectionUri = (parent.toString().isEmpty()
+                    ? COLLECTION
+                    : COLLECTION.resolve(parent.toString().replace(File.separatorChar, '/') + "/"));
+            try (ExistDatabase.Collection collection = db.collection(collectionUri)) {
+                collection.store(
+                        file.getFileName().toString(),
+                        file.toFile(),
+                        file.toString().endsWith(".xml")
+                                ? ExistDatabase.ResourceType.XML
+                                : ExistDatabase.ResourceType.BINARY,
+                        null,
+                        now
+                );
+            }
+        }
+    }
+
+    @Benchmark
+    public SyncManifest incrementalSync() throws Exception {
+        return sync();
+    }
+}
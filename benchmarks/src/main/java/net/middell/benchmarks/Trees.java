@@ -0,0 +1,133 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic directory trees, to be packaged or uploaded as collection trees.
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public final class Trees {
+
+    private static final String[] WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed",
+            "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna"
+    };
+
+    /**
+     * Generates a tree of directories, each containing the given number of files.
+     *
+     * <p>Files alternate between XML documents of text paragraphs and binary files of random
+     * content. The generated content only depends on the given parameters.</p>
+     *
+     * @param root      the root directory of the tree, created if necessary
+     * @param depth     the number of directory levels below the root
+     * @param fanOut    the number of subdirectories per directory
+     * @param files     the number of files per directory
+     * @param fileSize  the approximate size of each file in bytes
+     * @return the paths of all generated files
+     * @throws IOException in case of errors while writing files
+     */
+    public static List<Path> generate(Path root, int depth, int fanOut, int files, int fileSize)
+            throws IOException {
+        final List<Path> generated = new ArrayList<>();
+        generate(root, depth, fanOut, files, fileSize, new Random(42), generated);
+        return generated;
+    }
+
+    private static void generate(Path dir, int depth, int fanOut, int files, int fileSize,
+                                 Random random, List<Path> generated) throws IOException {
+        Files.createDirectories(dir);
+        for (int fc = 0; fc < files; fc++) {
+            final Path file;
+            if (fc % 2 == 0) {
+                file = dir.resolve(String.format("document-%03d.xml", fc));
+                try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    out.write("<document>");
+                    for (int written = 0; written < fileSize; ) {
+                        final StringBuilder p = new StringBuilder("<p>");
+                        for (int wc = 0; wc < 16; wc++) {
+                            p.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                        }
+                        p.append("</p>");
+                        out.write(p.toString());
+                        written += p.length();
+                    }
+                    out.write("</document>");
+                }
+            } else {
+                file = dir.resolve(String.format("binary-%03d.bin", fc));
+                final byte[] content = new byte[fileSize];
+                random.nextBytes(content);
+                Files.write(file, content);
+            }
+            generated.add(file);
+        }
+        if (depth > 0) {
+            for (int dc = 0; dc < fanOut; dc++) {
+                generate(dir.resolve(String.format("collection-%02d", dc)),
+                        depth - 1, fanOut, files, fileSize, random, generated);
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory tree.
+     *
+     * @param root the root of the tree; nothing happens if it does not exist
+     * @throws IOException in case of errors while deleting
+     */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Hidden constructor.
+     */
+    private Trees() {
+    }
+}
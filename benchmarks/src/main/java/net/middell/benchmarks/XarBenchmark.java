@@ -0,0 +1,102 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell.benchmarks;
+
+import net.middell.XarArchiver;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packages a synthetic directory tree into a XAR archive.
+ *
+ * <p>In incremental mode, all but the first invocation reuse the entries of the previously
+ * created archive.</p>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class XarBenchmark {
+
+    private static final Log LOG = new DefaultLog(new ConsoleLogger(Logger.LEVEL_WARN, "xar"));
+
+    @Param({ "3" })
+    public int depth;
+
+    @Param({ "4" })
+    public int fanOut;
+
+    @Param({ "10" })
+    public int files;
+
+    @Param({ "4096" })
+    public int fileSize;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "false", "true" })
+    public boolean incremental;
+
+    private Path work;
+    private XarArchiver archiver;
+
+    @Setup
+    public void generate() throws Exception {
+        work = Files.createTempDirectory("existdb-benchmark");
+        final Path source = work.resolve("source");
+        Trees.generate(source, depth, fanOut, files, fileSize);
+
+        archiver = new XarArchiver(source.toFile(), new File(work.toFile(), "benchmark.xar"), LOG);
+        archiver.setThreads(threads);
+        archiver.setIncremental(incremental);
+    }
+
+    @TearDown
+    public void delete() throws Exception {
+        Trees.delete(work);
+    }
+
+    @Benchmark
+    public void createArchive() throws Exception {
+        archiver.createArchive();
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Base class of goals accessing an eXist-db instance.
+ *
+ * <p>Credentials for accessing the instance are taken from a <code>&lt;server/&gt;</code> entry in
+ * the Maven settings.</p>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public abstract class AbstractExistMojo extends AbstractMojo {
+
+    /**
+     * The id of the <code>&lt;server/&gt;</code> entry in the Maven settings which provides
+     * username and password credentials for accessing the eXist-db instance.
+     *
+     * <p>Should this identifier not have been configured, this goal emits a warning and exits.</p>
+     */
+    @Parameter
+    protected String serverId;
+
+    /**
+     * Several eXist-db nodes to access instead of the single one given by {@link #serverId}.
+     *
+     * <p>Goals supporting multiple targets, i.e. pushing changes and deploying packages, process
+     * all of them concurrently and report the outcome per node. All other goals reject server
+     * targets configured without a {@link #serverId}.</p>
+     *
+     * @see ServerTarget
+     */
+    @Parameter
+    protected List<ServerTarget> serverTargets;
+
+    /**
+     * The number of server targets processed concurrently.
+     */
+    @Parameter(defaultValue = "1")
+    protected int serverParallelism;
+
+    /**
+     * Whether the first of the server targets is processed on its own before all others, which
+     * are skipped should it fail.
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean serverCanary;
+
+    /**
+     * The maximum number of idle collection handles kept open for reuse during the execution
+     * of this goal.
+     *
+     * <p>When accessing the database concurrently, this should be at least the number of
+     * worker threads. A value of 0 disables reuse.</p>
+     */
+    @Parameter(defaultValue = "16")
+    protected int connectionPoolSize;
+
+    /**
+     * The time in milliseconds after which idle collection handles are closed.
+     */
+    @Parameter(defaultValue = "60000")
+    protected long connectionIdleTimeout;
+
+    /**
+     * The maximum number of requests sent to the database concurrently.
+     *
+     * <p>Within this bound, the number of requests in flight adapts to the observed latencies:
+     * it grows while the server responds promptly and is cut back as soon as responses slow
+     * down or time out, so that goals can run against a production server without degrading
+     * its responsiveness for other clients.</p>
+     *
+     * <p>Per default (0), requests are not limited.</p>
+     *
+     * @see ConcurrencyLimiter
+     */
+    @Parameter(defaultValue = "0")
+    protected int requestConcurrency;
+
+    /**
+     * The multiple of the lowest observed latency of a kind of request, beyond which requests
+     * are considered a sign of the server being overloaded.
+     */
+    @Parameter(defaultValue = "2.0")
+    protected double requestLatencyTolerance;
+
+    /**
+     * The time in milliseconds after which connection attempts and unresponsive requests are
+     * aborted; 0 waits indefinitely.
+     */
+    @Parameter(defaultValue = "120000")
+    protected int requestTimeout;
+
+    /**
+     * The time in milliseconds after which unresponsive queries, e.g. installing a package or
+     * running tests, are aborted; 0 waits indefinitely.
+     *
+     * <p>XML:DB sends queries and content over the same XML-RPC client, which applies a single
+     * reply timeout to all calls; it is set to the larger of this timeout and the
+     * {@link #requestTimeout request timeout}.</p>
+     */
+    @Parameter(defaultValue = "600000")
+    protected int queryTimeout;
+
+    /**
+     * The number of times reads are retried after timeouts or connection failures.
+     */
+    @Parameter(defaultValue = "3")
+    protected int requestRetries;
+
+    /**
+     * The transport via which resource content is fetched and stored.
+     *
+     * <p>Per default (<code>xmlrpc</code>), all content is transferred via XML:DB. With
+     * <code>http</code> or <code>https</code>, content is transferred as raw, gzip-encoded bytes
+     * via eXist's REST interface, whose endpoint is derived from the URIs of the accessed
+     * collections; listings and queries are still handled via XML:DB.</p>
+     *
+     * <p>This is the transport of the server given by {@link #serverId}, and the default of all
+     * {@link #serverTargets server targets}, each of which can choose its own transport.</p>
+     *
+     * @see RestTransport
+     * @see ServerTarget#transport
+     */
+    @Parameter(defaultValue = "xmlrpc")
+    protected String transport;
+
+    /**
+     * Serialization options for the XML content of fetched resources, e.g.
+     * <code>&lt;indent&gt;no&lt;/indent&gt;</code> or
+     * <code>&lt;omit-xml-declaration&gt;yes&lt;/omit-xml-declaration&gt;</code>.
+     *
+     * <p>Fixing these options makes serialized content independent of the server's defaults.
+     * Content is always encoded in UTF-8.</p>
+     */
+    @Parameter
+    protected Map<String, String> serialization;
+
+    /**
+     * The directory into which metrics of this goal's execution are written, as a JSON document
+     * named after the goal.
+     *
+     * <p>Reports include the number of round trips to the database, transferred bytes, and
+     * latency histograms per phase, together with the slowest resources.</p>
+     */
+    @Parameter(defaultValue = "${project.build.directory}/existdb-metrics", required = true)
+    protected File metricsDirectory;
+
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    protected MavenProject project;
+
+    @Parameter(defaultValue = "${settings}", required = true, readonly = true)
+    protected Settings settings;
+
+    /**
+     * Logs a summary of a goal's metrics, including median and 99th percentile latencies, and
+     * writes them to the metrics directory.
+     *
+     * <p>Errors while writing the report are logged as warnings.</p>
+     *
+     * @param metrics the metrics
+     * @param goal    the name of the goal
+     */
+    protected void report(Metrics metrics, String goal) {
+        report(metrics, goal, getLog());
+    }
+
+    private void report(Metrics metrics, String goal, Log log) {
+        log.info(metrics.summary());
+        final String latencies = metrics.latencies();
+        if (!latencies.isEmpty()) {
+            log.info(latencies);
+        }
+        final File report = new File(metricsDirectory, goal + ".json");
+        try {
+            metrics.writeReport(report.toPath(), goal);
+        } catch (IOException e) {
+            log.warn(String.format("Cannot write metrics to '%s'", report), e);
+        }
+    }
+
+    /**
+     * A task run against the database of a single server target.
+     */
+    protected interface DatabaseTask {
+
+        /**
+         * Runs the task.
+         *
+         * @param target the target
+         * @param db     the target's database
+         * @param log    log for reporting progress
+         * @throws Exception in case of errors while processing the target
+         */
+        void run(ServerTarget target, ExistDatabase db, Log log) throws Exception;
+    }
+
+    /**
+     * Determines the server targets of this goal.
+     *
+     * @return the configured server targets or, if none have been configured, a single target
+     * referring to {@link #serverId}
+     */
+    protected List<ServerTarget> targets() {
+        if (serverTargets != null && !serverTargets.isEmpty()) {
+            return serverTargets;
+        }
+        final ServerTarget target = new ServerTarget();
+        target.serverId = serverId;
+        return Collections.singletonList(target);
+    }
+
+    /**
+     * Ensures that a single server has been configured, for goals not supporting multiple
+     * {@link #serverTargets server targets}.
+     *
+     * @param goal the name of the goal
+     * @throws MojoExecutionException in case server targets have been configured without a
+     *                                {@link #serverId}
+     */
+    protected void requireSingleServer(String goal) throws MojoExecutionException {
+        if (serverId == null && serverTargets != null && !serverTargets.isEmpty()) {
+            throw new MojoExecutionException(String.format(
+                    "The %s goal does not support server targets; configure a serverId instead",
+                    goal
+            ));
+        }
+    }
+
+    /**
+     * Runs a task against the databases of all server targets, with the configured parallelism.
+     *
+     * <p>Metrics are reported per target; with several targets, reports are named after goal
+     * and target.</p>
+     *
+     * @param goal the name of the goal
+     * @param task the task
+     * @throws Exception the first failure of any target
+     * @see FanOut
+     */
+    protected void fanOut(String goal, DatabaseTask task) throws Exception {
+        final List<ServerTarget> targets = targets();
+        final FanOut fanOut = new FanOut(getLog());
+        fanOut.setParallelism(serverParallelism);
+        fanOut.setCanaryFirst(serverCanary);
+        fanOut.run(targets, (target, log) -> {
+            try (ExistDatabase db = database(target.serverId,
+                    target.transport == null ? transport : target.transport)) {
+                task.run(target, db, log);
+                report(db.metrics(), targets.size() == 1
+                        ? goal
+                        : goal + "-" + target.toString().replaceAll("[^\\w.-]", "_"), log);
+            }
+        });
+    }
+
+    /**
+     * Creates an accessor for the configured database, authenticated with the credentials of
+     * the configured server.
+     *
+     * @return the database accessor, to be closed after use
+     * @throws MojoExecutionException in case the server or its credentials are not configured
+     */
+    protected ExistDatabase database() throws MojoExecutionException {
+        return database(serverId, transport);
+    }
+
+    /**
+     * Creates an accessor for the configured database, authenticated with the credentials of
+     * the given server.
+     *
+     * @param serverId  the id of the <code>&lt;server/&gt;</code> entry in the Maven settings
+     * @param transport the transport of resource content, see {@link #transport}
+     * @return the database accessor, to be closed after use
+     * @throws MojoExecutionException in case the server or its credentials are not configured,
+     *                                or the transport is unknown
+     */
+    protected ExistDatabase database(String serverId, String transport)
+            throws MojoExecutionException {
+        final Server server = Optional.ofNullable(settings.getServer(serverId))
+                .orElseThrow(() -> new MojoExecutionException(
+                        String.format("Server '%s' not found", serverId)
+                ));
+
+        final String user = Optional.ofNullable(server.getUsername())
+                .orElseThrow(() -> new MojoExecutionException(
+                        String.format("Server '%s' has no username defined", serverId)
+                ));
+        final String password = Optional.ofNullable(server.getPassword())
+                .orElseThrow(() -> new MojoExecutionException(
+                        String.format("Server '%s' has no password defined", serverId)
+                ));
+
+        final Map<String, String> outputProperties = (serialization == null
+                ? Collections.emptyMap() : serialization);
+        final ExistDatabase db = new ExistDatabase(
+                user, password, connectionPoolSize, connectionIdleTimeout
+        );
+        db.setOutputProperties(outputProperties);
+        if (requestConcurrency > 0) {
+            db.setLimiter(new ConcurrencyLimiter(
+                    Math.min(4, requestConcurrency), requestConcurrency, requestLatencyTolerance
+            ));
+        }
+        db.setRetries(requestRetries);
+        db.setTimeouts(requestTimeout, requestTimeout == 0 || queryTimeout == 0
+                ? 0 : Math.max(requestTimeout, queryTimeout));
+        switch (transport == null ? "xmlrpc" : transport) {
+            case "xmlrpc":
+                break;
+            case "http":
+            case "https":
+                final RestTransport restTransport = new RestTransport(transport, user, password);
+                restTransport.setOutputProperties(outputProperties);
+                restTransport.setTimeout(requestTimeout);
+                db.setTransport(restTransport);
+                break;
+            default:
+                throw new MojoExecutionException(
+                        String.format("Unknown transport '%s'", transport)
+                );
+        }
+        return db;
+    }
+}
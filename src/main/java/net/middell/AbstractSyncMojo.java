@@ -0,0 +1,239 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Base class of goals transferring resources between mapped eXist-db collections and the local
+ * filesystem.
+ *
+ * @see SyncMapping
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public abstract class AbstractSyncMojo extends AbstractExistMojo {
+
+    /**
+     * An optional base URI of all collections/resources to be synchronized.
+     *
+     * <p>All {@link #syncMappings mapped URIs} are resolved against this base in case
+     * it has been provided.</p>
+     */
+    @Parameter
+    protected String syncBase;
+
+    /**
+     * A list of mappings between eXist-db collection/resources, specified via URIs, and local
+     * filesystem paths.
+     *
+     * <p>Relative filesystem paths are interpreted relative to a project's base directory.</p>
+     */
+    @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
+    @Parameter
+    protected List<SyncMapping> syncMappings;
+
+    /**
+     * An optional regular expression which is matched against eXist-db URIs and allows for the
+     * exclusion of resources otherwise synced.
+     *
+     * <p>Per default, descriptor files are excluded.</p>
+     */
+    @Parameter(defaultValue = ".*?(repo)|(expath\\-pkg)\\.xml$")
+    protected String syncExclusion;
+
+    /**
+     * An optional list of rules, including or excluding collections and resources.
+     *
+     * <p>Rules are matched against paths relative to the mapped collections; the first matching
+     * rule decides. Excluded collections are skipped as a whole, without being listed, and
+     * local files corresponding to excluded paths are neither uploaded nor deleted.</p>
+     *
+     * @see SyncRule
+     */
+    @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
+    @Parameter
+    protected List<SyncRule> syncRules;
+
+    /**
+     * The line ending appended to the serialized content of XML resources: <code>system</code>
+     * for the platform's line separator, <code>lf</code>, <code>crlf</code> or
+     * <code>none</code>.
+     *
+     * <p>Together with fixed {@link #serialization serialization options}, a fixed line ending
+     * yields byte-identical files on all platforms.</p>
+     */
+    @Parameter(defaultValue = "system")
+    protected String syncFinalNewline;
+
+    /**
+     * File in which the state of synced resources is recorded between runs.
+     *
+     * <p>Resources which have neither been modified in the database nor locally since the last
+     * sync are skipped without being opened. The recorded state is discarded whenever the sync
+     * configuration changes.</p>
+     */
+    @Parameter(defaultValue = "${project.build.directory}/existdb-sync.manifest", required = true)
+    protected File syncManifest;
+
+    /**
+     * Checks whether a server and mappings have been configured, emitting a warning if not.
+     *
+     * @return <code>true</code> if there is something to sync
+     */
+    protected boolean isConfigured() {
+        if ((serverId == null && serverTargets == null) || syncMappings == null) {
+            getLog().warn("No server and/or sync mappings defined.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the configured exclusion pattern.
+     *
+     * @return a predicate on resource URIs, or <code>null</code> if none has been configured
+     */
+    protected Predicate<String> exclusion() {
+        return (syncExclusion == null ? null : Pattern.compile(syncExclusion).asPredicate());
+    }
+
+    /**
+     * Resolves the configured line ending of XML content.
+     *
+     * @return the line ending, possibly empty
+     * @throws MojoExecutionException in case of an unknown line ending
+     */
+    protected String finalNewline() throws MojoExecutionException {
+        switch (syncFinalNewline == null ? "system" : syncFinalNewline) {
+            case "system":
+                return System.lineSeparator();
+            case "lf":
+                return "\n";
+            case "crlf":
+                return "\r\n";
+            case "none":
+                return "";
+            default:
+                throw new MojoExecutionException(
+                        String.format("Unknown line ending '%s'", syncFinalNewline)
+                );
+        }
+    }
+
+    /**
+     * Compiles the configured include/exclude rules.
+     *
+     * @param mappings the mappings, the rules are applied to
+     * @return the filter
+     * @throws MojoExecutionException in case of invalid rules
+     */
+    protected SyncFilter filter(SortedMap<URI, File> mappings) throws MojoExecutionException {
+        try {
+            return new SyncFilter(
+                    syncRules == null ? Collections.emptyList() : syncRules,
+                    mappings.keySet()
+            );
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the manifest of the last sync, as long as it has been recorded with the current
+     * configuration.
+     *
+     * @return the manifest
+     * @throws NoSuchAlgorithmException in case the digest algorithm is not available
+     */
+    protected SyncManifest manifest() throws NoSuchAlgorithmException {
+        return SyncManifest.load(syncManifest.toPath(), configurationFingerprint());
+    }
+
+    /**
+     * Resolves the configured mappings to collection URIs and canonical local paths.
+     *
+     * <p>Mappings to paths outside of the project directory are skipped.</p>
+     *
+     * @return the mappings, sorted in descending order of collection URIs
+     * @throws IOException in case local paths cannot be canonicalized
+     */
+    protected SortedMap<URI, File> initMappings() throws IOException {
+        final SortedMap<URI, File> syncMap = new TreeMap<>(
+                Comparator.<URI>naturalOrder().reversed()
+        );
+
+        final File projectBase = project.getBasedir().getCanonicalFile();
+        final String projectBasePath = projectBase.getPath();
+
+        final URI syncBaseUri = (syncBase == null ? null : ExistUri.create(syncBase));
+        for (SyncMapping mapping : syncMappings) {
+            URI sourceUri = ExistUri.create(mapping.source);
+            if (syncBaseUri != null) {
+                sourceUri = syncBaseUri.resolve(sourceUri);
+            }
+            final File targetFile = new File(projectBase, mapping.target).getCanonicalFile();
+            if (targetFile.toPath().startsWith(projectBasePath)) {
+                syncMap.put(sourceUri, targetFile);
+            } else {
+                getLog().warn(String.format("'%s' is not in project dir! Skipped.", targetFile));
+            }
+        }
+        return syncMap;
+    }
+
+    private byte[] configurationFingerprint() throws NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance(Synchronizer.DIGEST_ALGORITHM);
+        final List<String> configuration = new ArrayList<>();
+        configuration.add(String.valueOf(syncBase));
+        configuration.add(String.valueOf(syncExclusion));
+        configuration.add(String.valueOf(syncFinalNewline));
+        if (serialization != null) {
+            configuration.add(new TreeMap<>(serialization).toString());
+        }
+        for (SyncMapping mapping : syncMappings) {
+            configuration.add(mapping.source);
+            configuration.add(mapping.target);
+        }
+        if (syncRules != null) {
+            for (SyncRule rule : syncRules) {
+                configuration.add(rule.toString());
+            }
+        }
+        for (String value : configuration) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.XMLDBException;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A bounded LRU cache of idle XML:DB collection handles.
+ *
+ * <p>Handles are lent out exclusively: a {@link #borrow(URI) borrowed} handle is removed from the
+ * cache until it is {@link #release(URI, Collection) released}, so that no handle is ever used by
+ * more than one thread at a time. Idle handles are closed once they exceed the configured idle
+ * timeout or when the cache grows beyond its capacity, least recently used ones first.</p>
+ *
+ * @see ExistDatabase
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+class CollectionPool implements AutoCloseable {
+
+    private final int capacity;
+    private final long idleTimeout;
+    private final LinkedList<Idle> idle = new LinkedList<>();
+
+    /**
+     * Creates a pool.
+     *
+     * @param capacity    the maximum number of idle handles to keep; 0 disables pooling
+     * @param idleTimeout the time in milliseconds after which idle handles are closed
+     */
+    CollectionPool(int capacity, long idleTimeout) {
+        this.capacity = Math.max(0, capacity);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Takes an idle handle for the given collection from the pool.
+     *
+     * @param uri the URI of the collection
+     * @return the most recently released handle for the collection or <code>null</code>
+     * @throws XMLDBException propagated from closing expired handles
+     */
+    synchronized Collection borrow(URI uri) throws XMLDBException {
+        evictExpired();
+        for (Iterator<Idle> it = idle.descendingIterator(); it.hasNext(); ) {
+            final Idle candidate = it.next();
+            if (candidate.uri.equals(uri)) {
+                it.remove();
+                if (candidate.collection.isOpen()) {
+                    return candidate.collection;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a handle to the pool, closing it if pooling is disabled.
+     *
+     * @param uri        the URI of the collection
+     * @param collection the handle
+     * @throws XMLDBException propagated from closing evicted handles
+     */
+    synchronized void release(URI uri, Collection collection) throws XMLDBException {
+        if (collection == null) {
+            return;
+        }
+        if (capacity == 0) {
+            collection.close();
+            return;
+        }
+        idle.addLast(new Idle(uri, collection, System.currentTimeMillis()));
+        while (idle.size() > capacity) {
+            idle.removeFirst().collection.close();
+        }
+        evictExpired();
+    }
+
+    @Override
+    public synchronized void close() throws XMLDBException {
+        XMLDBException error = null;
+        while (!idle.isEmpty()) {
+            try {
+                idle.removeFirst().collection.close();
+            } catch (XMLDBException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void evictExpired() throws XMLDBException {
+        final long expiry = System.currentTimeMillis() - idleTimeout;
+        while (!idle.isEmpty() && idle.getFirst().released < expiry) {
+            idle.removeFirst().collection.close();
+        }
+    }
+
+    private static class Idle {
+
+        private final URI uri;
+        private final Collection collection;
+        private final long released;
+
+        private Idle(URI uri, Collection collection, long released) {
+            this.uri = uri;
+            this.collection = collection;
+            this.released = released;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Determines how files are compressed when packaged into a XAR archive.
+ *
+ * <p>Entries are compressed with the level of the first {@link CompressionRule rule} they match.
+ * Unless disabled, files of well-known, already compressed types like images, fonts, archives
+ * and media are stored without compression, as deflating them only costs time when packaging
+ * and again when the package is unpacked. Optionally, small files are stored as well if
+ * deflating them does not shrink them sufficiently.</p>
+ *
+ * @see XarArchiver
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class CompressionPolicy {
+
+    /**
+     * Extensions of file types, which are compressed already.
+     */
+    public static final String[] COMPRESSED_EXTENSIONS = {
+            "7z", "bz2", "docx", "eot", "epub", "gif", "gz", "jar", "jpeg", "jpg", "m4a",
+            "mp3", "mp4", "odt", "ogg", "pdf", "png", "pptx", "svgz", "webm", "webp", "woff",
+            "woff2", "xar", "xlsx", "xz", "zip"
+    };
+
+    /**
+     * Level denoting entries stored without compression.
+     */
+    public static final int STORED = Deflater.NO_COMPRESSION;
+
+    private final List<CompressionRule> rules = new ArrayList<>();
+    private final List<PathMatcher> matchers = new ArrayList<>();
+
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean storeCompressedTypes = true;
+    private long smallFileSize = 0;
+    private double maxRatio = 0.9;
+
+    /**
+     * Adds a rule, taking precedence over all rules added after it.
+     *
+     * @param rule the rule
+     */
+    public void addRule(CompressionRule rule) {
+        if (rule.pattern == null || rule.level < -1 || rule.level > 9) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid compression rule '%s'", rule
+            ));
+        }
+        rules.add(rule);
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + rule.pattern));
+    }
+
+    /**
+     * Sets the level of entries which do not match any rule.
+     *
+     * @param defaultLevel a level between 0 (stored) and 9, or -1 (the default) for the
+     *                     deflater's default level
+     */
+    public void setDefaultLevel(int defaultLevel) {
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * Determines whether files with one of the {@link #COMPRESSED_EXTENSIONS well-known
+     * extensions} of compressed types are stored, unless they match a rule.
+     *
+     * @param storeCompressedTypes <code>true</code> per default
+     */
+    public void setStoreCompressedTypes(boolean storeCompressedTypes) {
+        this.storeCompressedTypes = storeCompressedTypes;
+    }
+
+    /**
+     * Sets the size up to which files are stored if deflating them does not yield the
+     * {@link #setMaxRatio(double) required ratio}.
+     *
+     * @param smallFileSize the size in bytes; 0 (the default) disables this check
+     */
+    public void setSmallFileSize(long smallFileSize) {
+        this.smallFileSize = smallFileSize;
+    }
+
+    /**
+     * Sets the maximum ratio of compressed to uncompressed size of small files to be kept
+     * deflated.
+     *
+     * @param maxRatio the ratio, per default 0.9
+     */
+    public void setMaxRatio(double maxRatio) {
+        this.maxRatio = maxRatio;
+    }
+
+    /**
+     * Determines the compression level of an entry.
+     *
+     * @param name the path of the entry relative to the package root
+     * @return a level between 0 ({@link #STORED stored}) and 9, or -1 for the deflater's default
+     * level
+     */
+    public int level(String name) {
+        final Path path = Paths.get(name);
+        final Path fileName = path.getFileName();
+        for (int rc = 0; rc < rules.size(); rc++) {
+            final boolean pathPattern = rules.get(rc).pattern.contains("/");
+            if (matchers.get(rc).matches(pathPattern ? path : fileName)) {
+                return rules.get(rc).level;
+            }
+        }
+        if (storeCompressedTypes) {
+            final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+            for (String extension : COMPRESSED_EXTENSIONS) {
+                if (lowerCaseName.endsWith("." + extension)) {
+                    return STORED;
+                }
+            }
+        }
+        return defaultLevel;
+    }
+
+    /**
+     * Checks whether a deflated entry is worth keeping compressed.
+     *
+     * @param size           the uncompressed size of the entry
+     * @param compressedSize the deflated size of the entry
+     * @return <code>false</code> if the entry is small and deflating it does not yield the
+     * required ratio
+     */
+    public boolean keepDeflated(long size, long compressedSize) {
+        return size > smallFileSize || compressedSize <= size * maxRatio;
+    }
+
+    /**
+     * A description of this policy, changing whenever its configuration does.
+     *
+     * @return the description
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "rules=%s;default=%d;storeCompressedTypes=%s;smallFileSize=%d;maxRatio=%s",
+                rules, defaultLevel, storeCompressedTypes, smallFileSize, maxRatio
+        );
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Assigns a compression level to XAR entries whose paths match a glob pattern.
+ *
+ * <p>Patterns without a slash are matched against file names, all others against entry paths
+ * relative to the package root, e.g. <code>*.jpg</code> or <code>resources/fonts/**</code>.
+ * Level 0 stores matching files without compression; levels 1-9 deflate them with the given
+ * effort.</p>
+ *
+ * @see CompressionPolicy
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class CompressionRule {
+
+    /**
+     * The glob pattern, entries have to match for this rule to apply.
+     */
+    @Parameter(required = true)
+    public String pattern;
+
+    /**
+     * The compression level of matching entries, between 0 (stored) and 9, or -1 for the default
+     * level.
+     */
+    @Parameter
+    public int level = -1;
+
+    @Override
+    public String toString() {
+        return pattern + "=" + level;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adaptively limits the number of concurrent requests to a database.
+ *
+ * <p>The limit follows an additive-increase/multiplicative-decrease (AIMD) scheme: it grows by
+ * one per limit's worth of requests completing within the latency tolerance while the limit is
+ * being made use of, and is cut back by the backoff ratio whenever a request times out, fails or
+ * takes longer than the tolerated multiple of the baseline latency. Baselines are tracked per
+ * operation, e.g. per query, as different kinds of requests take very different times; they
+ * follow the lowest observed latencies and slowly drift upwards, so that the limiter adapts to a
+ * server whose unloaded latency changes. Requests whose latency depends on their payload, e.g.
+ * transfers of resource content or arbitrary queries, are not compared with a baseline at all;
+ * only their failures are taken into account.</p>
+ *
+ * <p>Requests beyond the current limit block until a request in flight completes, so that a
+ * busy server is relieved instead of being queued up with more work.</p>
+ *
+ * @see ExistDatabase#setLimiter(ConcurrencyLimiter)
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The factor by which the limit is reduced on overload.
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * The weight of a sample exceeding an operation's baseline, by which the baseline drifts
+     * upwards.
+     */
+    private static final double DRIFT = 0.01;
+
+    private final int maxLimit;
+    private final double tolerance;
+    private final Map<String, Double> baselines = new ConcurrentHashMap<>();
+
+    private double limit;
+    private int inFlight;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param initialLimit the number of concurrent requests initially allowed
+     * @param maxLimit     the maximum number of concurrent requests
+     * @param tolerance    the multiple of the baseline latency beyond which a request is
+     *                     considered a sign of overload, e.g. 2.0
+     */
+    public ConcurrencyLimiter(int initialLimit, int maxLimit, double tolerance) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.tolerance = Math.max(1.0, tolerance);
+    }
+
+    /**
+     * Waits until the current limit allows for another request.
+     *
+     * <p>Interrupts while waiting are deferred: the thread's interrupt status is restored once
+     * the request may proceed.</p>
+     */
+    public synchronized void acquire() {
+        boolean interrupted = false;
+        while (inFlight >= (int) limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        inFlight++;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Signals the completion of a request, adjusting the limit to its outcome.
+     *
+     * @param operation  the kind of request, whose latencies are compared with each other, or
+     *                   <code>null</code> if the request's latency depends on its payload
+     * @param nanos      the latency of the request
+     * @param overloaded <code>true</code> if the request has timed out or failed due to the
+     *                   server's load, in which case its latency is not taken into account
+     */
+    public synchronized void release(String operation, long nanos, boolean overloaded) {
+        final boolean saturated = (inFlight * 2 >= (int) limit);
+        inFlight--;
+        if (overloaded
+                || (operation != null && nanos > tolerance * baseline(operation, nanos))) {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * The current limit.
+     *
+     * @return the number of concurrent requests currently allowed
+     */
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    private double baseline(String operation, long nanos) {
+        return baselines.merge(operation, (double) nanos, (baseline, sample) -> sample < baseline
+                ? sample
+                : baseline + (sample - baseline) * DRIFT);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Alternative channel for transferring resource content between the database and the local
+ * filesystem, bypassing the XML:DB API.
+ *
+ * <p>Transports are selected per server: content of resources whose URIs are
+ * {@link #supports(URI) supported} by a database's transport is transferred through it, while
+ * all other content as well as listings and queries are handled via XML:DB.</p>
+ *
+ * @see ExistDatabase#setTransport(ContentTransport)
+ * @see RestTransport
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public interface ContentTransport {
+
+    /**
+     * Determines whether this transport can reach the server of a given resource.
+     *
+     * @param uri the {@link ExistUri eXist-specific URI} of a collection or resource
+     * @return <code>true</code> if content of the resource can be transferred
+     */
+    boolean supports(URI uri);
+
+    /**
+     * Streams the content of a resource, unless it has not been modified since a given point in
+     * time.
+     *
+     * @param resource        the URI of the resource
+     * @param ifModifiedSince a UNIX timestamp in milliseconds, or a negative value to fetch the
+     *                        content unconditionally
+     * @param out             the stream to write the content to
+     * @return <code>true</code> if the content has been written, <code>false</code> if it has
+     * not been modified
+     * @throws IOException in case of transport errors or errors while writing to the stream
+     */
+    boolean fetch(URI resource, long ifModifiedSince, OutputStream out) throws IOException;
+
+    /**
+     * Stores a file as a resource, replacing an existing resource of the same name.
+     *
+     * @param resource    the URI of the resource
+     * @param file        the file to store
+     * @param contentType the MIME type of the content, which determines whether it is stored as
+     *                    an XML or a binary resource
+     * @throws IOException in case of transport errors or errors while reading the file
+     */
+    void store(URI resource, Path file, String contentType) throws IOException;
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Uploads the XAR archive built by the {@link XarMojo xar goal} into an eXist-db instance and
+ * installs it via the instance's package repository.
+ *
+ * <p>The archive is streamed from disk and uploaded in chunks, so that memory usage does not
+ * depend on the archive's size. Should an identical archive already have been uploaded, e.g. by
+ * a previous run whose installation failed, the upload is skipped. A previously installed
+ * version of the package is undeployed and removed before the uploaded one is installed.</p>
+ *
+ * <p>Packages can be deployed to several {@link ServerTarget server targets} at once, e.g. a pool
+ * of nodes running the same application. The archive is then hashed once and streamed to every
+ * node, with the collection URI's host and port replaced by the respective target's.</p>
+ *
+ * <p>Sample configuration:</p>
+ *
+ * <pre>{@literal
+<configuration>
+  <serverId>exist</serverId>
+  <deployCollection>xmldb:exist://localhost:8080/exist/xmlrpc/db/system/repo/</deployCollection>
+</configuration>
+ * }</pre>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@Mojo(name = "deploy")
+public class DeployMojo extends AbstractExistMojo {
+
+    /**
+     * MIME type of XAR archives.
+     */
+    public static final String XAR_MIME_TYPE = "application/expath+xar";
+
+    private static final String HASH_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $name external;",
+            "let $path := concat($collection, \"/\", $name)",
+            "return if (util:binary-doc-available($path))",
+            "  then string(util:hash(util:binary-doc($path), \"sha-1\"))",
+            "  else \"\""
+    );
+
+    private static final String INSTALL_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $name external;",
+            "declare variable $package external;",
+            "let $result := (",
+            "  if ($package = repo:list())",
+            "  then (repo:undeploy($package), repo:remove($package))",
+            "  else (),",
+            "  repo:install-and-deploy-from-db(concat($collection, \"/\", $name))",
+            ")",
+            "return util:serialize($result[last()], ())"
+    );
+
+    /**
+     * The package file to be deployed.
+     */
+    @Parameter(
+            defaultValue = "${project.build.directory}/${project.build.finalName}.xar",
+            required = true)
+    private File xarFile;
+
+    /**
+     * The URI of the collection the package file is uploaded to before installing it.
+     */
+    @Parameter
+    private String deployCollection;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if ((serverId == null && serverTargets == null) || deployCollection == null) {
+            getLog().warn("No server and/or deploy collection defined.");
+            return;
+        }
+        if (!xarFile.isFile()) {
+            throw new MojoExecutionException(String.format("'%s' does not exist", xarFile));
+        }
+        try {
+            final String packageName = packageName(xarFile);
+            final String localHash = hex(Synchronizer.digest(xarFile.toPath()));
+
+            fanOut("deploy", (target, db, log) -> {
+                final URI collectionUri = target.resolve(ExistUri.create(deployCollection));
+                try (ExistDatabase.Collection collection = db.createCollection(collectionUri)) {
+                    install(collection, collectionUri, xarFile, packageName, localHash, log);
+                }
+            });
+        } catch (MojoFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MojoExecutionException(
+                    String.format("Error while deploying '%s'", xarFile),
+                    e
+            );
+        }
+    }
+
+    /**
+     * Uploads a package file into a collection, unless it has been uploaded before, and installs
+     * it, replacing a previously installed version.
+     *
+     * @param collection    the collection the package file is uploaded to
+     * @param collectionUri the URI of the collection
+     * @param xarFile       the package file
+     * @param packageName   the name of the package, as read via {@link #packageName(File)}
+     * @param localHash     the hex-encoded SHA-1 digest of the package file
+     * @param log           the log to report the upload and installation to
+     * @throws Exception in case the upload or installation fails
+     */
+    static void install(ExistDatabase.Collection collection, URI collectionUri, File xarFile,
+                        String packageName, String localHash, Log log) throws Exception {
+        final String name = xarFile.getName();
+        final Map<String, Object> variables = new HashMap<>();
+        variables.put("name", name);
+        variables.put("package", packageName);
+
+        final long uploadStart = System.currentTimeMillis();
+        if (localHash.equals(collection.query(HASH_QUERY, variables))) {
+            log.info(String.format("'%s' already uploaded to '%s'", xarFile, collectionUri));
+        } else {
+            collection.store(
+                    name,
+                    xarFile,
+                    ExistDatabase.ResourceType.BINARY,
+                    XAR_MIME_TYPE,
+                    xarFile.lastModified()
+            );
+            log.info(String.format(
+                    "Uploaded '%s' (%d bytes) to '%s' in %d ms",
+                    xarFile, xarFile.length(), collectionUri,
+                    System.currentTimeMillis() - uploadStart
+            ));
+        }
+
+        final long installStart = System.currentTimeMillis();
+        final String result = collection.query(INSTALL_QUERY, variables);
+        log.info(String.format(
+                "Installed '%s' in %d ms: %s",
+                packageName, System.currentTimeMillis() - installStart, result
+        ));
+        if (!result.contains("result=\"ok\"")) {
+            throw new MojoFailureException(String.format(
+                    "Installation of '%s' failed: %s", packageName, result
+            ));
+        }
+    }
+
+    /**
+     * Reads the name of the package from the archive's <code>expath-pkg.xml</code> descriptor.
+     *
+     * @param xar the package file
+     * @return the package name
+     * @throws Exception in case the descriptor is missing or cannot be parsed
+     */
+    static String packageName(File xar) throws Exception {
+        try (ZipFile zip = new ZipFile(xar)) {
+            final ZipEntry descriptor = zip.getEntry("expath-pkg.xml");
+            if (descriptor == null) {
+                throw new IllegalArgumentException(
+                        String.format("'%s' contains no expath-pkg.xml", xar)
+                );
+            }
+            try (InputStream in = zip.getInputStream(descriptor)) {
+                final Document doc = DocumentBuilderFactory.newInstance()
+                        .newDocumentBuilder()
+                        .parse(in);
+                return doc.getDocumentElement().getAttribute("name");
+            }
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.exist.storage.BrokerPool;
+import org.exist.util.Configuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An embedded eXist-db instance, running in the JVM of the build and storing its data in a given
+ * directory.
+ *
+ * <p>The instance is configured via a minimal <code>conf.xml</code>, which registers the modules
+ * needed for installing packages, and accessed in-process via URIs of the form
+ * <code>xmldb:exist:///db/...</code>. Only one instance can run per JVM; while it runs, the
+ * system property <code>exist.home</code> points to its home directory, and is reset on
+ * close.</p>
+ *
+ * @see StartMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class EmbeddedExist implements AutoCloseable {
+
+    /**
+     * The URI of the root collection of the embedded instance.
+     */
+    public static final URI ROOT = URI.create("/db/");
+
+    /**
+     * The user, the plugin accesses the embedded instance as.
+     */
+    public static final String USER = "admin";
+
+    /**
+     * The password of the {@link #USER user}.
+     */
+    public static final String PASSWORD = "";
+
+    private final Path home;
+    private final String previousHome;
+
+    /**
+     * Starts an embedded instance.
+     *
+     * @param home the directory for configuration and data files, created if necessary
+     * @throws Exception in case the instance cannot be configured or started
+     */
+    public EmbeddedExist(Path home) throws Exception {
+        this.home = home;
+        Files.createDirectories(home.resolve("data"));
+        final Path conf = home.resolve("conf.xml");
+        Files.write(conf, configuration());
+        this.previousHome = System.setProperty("exist.home", home.toString());
+        try {
+            BrokerPool.configure(
+                    BrokerPool.DEFAULT_INSTANCE_NAME, 1, 5,
+                    new Configuration(conf.toString(), home.toString())
+            );
+        } catch (Exception e) {
+            resetHome();
+            throw e;
+        }
+    }
+
+    /**
+     * The content of the <code>conf.xml</code> embedded instances are configured with.
+     *
+     * @return the configuration file's bytes
+     * @throws IOException in case the configuration cannot be read from the classpath
+     */
+    public static byte[] configuration() throws IOException {
+        try (InputStream in = EmbeddedExist.class.getResourceAsStream("conf.xml")) {
+            final ByteArrayOutputStream conf = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+                conf.write(buf, 0, read);
+            }
+            return conf.toByteArray();
+        }
+    }
+
+    /**
+     * The directory of the instance's configuration and data files.
+     *
+     * @return the home directory, as passed on start
+     */
+    public Path home() {
+        return home;
+    }
+
+    /**
+     * Creates a client of the instance, accessing it as the {@link #USER admin user}.
+     *
+     * @return a client, to be closed by the caller
+     */
+    public ExistDatabase database() {
+        return new ExistDatabase(USER, PASSWORD);
+    }
+
+    @Override
+    public void close() {
+        try {
+            BrokerPool.stopAll(false);
+        } finally {
+            resetHome();
+        }
+    }
+
+    private void resetHome() {
+        if (previousHome == null) {
+            System.clearProperty("exist.home");
+        } else {
+            System.setProperty("exist.home", previousHome);
+        }
+    }
+}
@@ -17,21 +17,66 @@
 
 package net.middell;
 
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfig;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcCommonsTransportFactory;
 import org.exist.xmldb.DatabaseImpl;
 import org.exist.xmldb.EXistResource;
+import org.exist.xmldb.ExtendedResource;
+import org.exist.xmldb.RemoteCollection;
+import org.exist.xmldb.XQueryService;
 import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.ErrorCodes;
+import org.xmldb.api.base.ResourceIterator;
 import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.BinaryResource;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
 
+import javax.xml.transform.OutputKeys;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Facilitates authenticated access to collections and resources in
  * an <a href="http://exist-db.org/">eXist XML database</a>.
  *
+ * <p>Collection handles are pooled for the lifetime of a database accessor: closing a
+ * {@link Collection} returns its underlying XML:DB handle to a bounded LRU cache, from which
+ * subsequent requests for the same collection are served without reconnecting and
+ * reauthenticating. Handles of child collections are derived from pooled parent handles where
+ * possible. Closing the accessor closes all pooled handles.</p>
+ *
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
-public class ExistDatabase {
+public class ExistDatabase implements AutoCloseable {
 
     /**
      * Resources in eXist databases contain either XML or binary content.
@@ -40,6 +85,211 @@ public class ExistDatabase {
         BINARY, XML
     }
 
+    /**
+     * Metadata of a resource, as retrieved in bulk via a server-side query.
+     */
+    public static class Metadata {
+
+        private final String name;
+        private final ResourceType type;
+        private final long lastModified;
+        private final long size;
+
+        /**
+         * Creates a metadata record.
+         *
+         * @param name         the name of the resource
+         * @param type         the content type of the resource
+         * @param lastModified the time the resource was last modified
+         * @param size         the size of the resource as reported by the database
+         */
+        public Metadata(String name, ResourceType type, long lastModified, long size) {
+            this.name = name;
+            this.type = type;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * The name of the resource.
+         *
+         * @return the resource name, unique within its parent collection
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Determines whether the resource contains XML or binary content.
+         *
+         * @return the content type
+         */
+        public ResourceType type() {
+            return type;
+        }
+
+        /**
+         * The time the resource was last modified.
+         *
+         * @return a UNIX timestamp in milliseconds
+         */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        /**
+         * The size of the resource.
+         *
+         * <p>For XML resources, eXist reports an estimate based on the number of pages
+         * occupied by the document.</p>
+         *
+         * @return the size in bytes
+         */
+        public long size() {
+            return size;
+        }
+    }
+
+    /**
+     * Contents of a collection: the names of its child collections and the metadata of its
+     * resources.
+     */
+    public static class Listing {
+
+        private final SortedSet<String> collections = new TreeSet<>();
+        private final SortedMap<String, Metadata> resources = new TreeMap<>();
+
+        /**
+         * The sorted array of collections contained in the listed collection.
+         *
+         * @return the names of all child collections
+         */
+        public String[] collections() {
+            return collections.toArray(new String[collections.size()]);
+        }
+
+        /**
+         * Metadata of all resources contained in the listed collection.
+         *
+         * @return resource metadata, keyed and sorted by resource name
+         */
+        public SortedMap<String, Metadata> resources() {
+            return resources;
+        }
+    }
+
+    /**
+     * Aggregated state of a collection subtree, allowing to detect changes anywhere in the
+     * subtree without listing it.
+     */
+    public static class Summary {
+
+        private final long lastModified;
+        private final long resources;
+        private final String structure;
+
+        /**
+         * Creates a subtree summary.
+         *
+         * @param lastModified the latest modification time of all resources in the subtree
+         * @param resources    the number of resources in the subtree
+         * @param structure    a hash of the names of all collections and resources in the
+         *                     subtree, along with the sizes and modification times of resources
+         */
+        public Summary(long lastModified, long resources, String structure) {
+            this.lastModified = lastModified;
+            this.resources = resources;
+            this.structure = structure;
+        }
+
+        /**
+         * The latest modification time of all resources in the subtree.
+         *
+         * @return a UNIX timestamp in milliseconds, or 0 if the subtree contains no resources
+         */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        /**
+         * The number of resources in the subtree.
+         *
+         * @return the number of resources
+         */
+        public long resources() {
+            return resources;
+        }
+
+        /**
+         * A hash of the names of all collections and resources in the subtree, along with the
+         * sizes and modification times of resources. It changes whenever entries are added,
+         * removed or renamed, and whenever a resource is replaced, even if the replacement carries
+         * an older modification time than the latest one in the subtree.
+         *
+         * @return the hash
+         */
+        public String structure() {
+            return structure;
+        }
+    }
+
+    /**
+     * Summary of the state of a collection subtree, as retrieved when polling for changes.
+     */
+    public static class Changes {
+
+        private final long timestamp;
+        private final String structure;
+        private final int modified;
+
+        /**
+         * Creates a change summary.
+         *
+         * @param timestamp the time of the database server at which the subtree was inspected
+         * @param structure a hash of the paths of all collections and resources in the subtree
+         * @param modified  the number of resources modified since the given point in time
+         */
+        public Changes(long timestamp, String structure, int modified) {
+            this.timestamp = timestamp;
+            this.structure = structure;
+            this.modified = modified;
+        }
+
+        /**
+         * The time of the database server at which the subtree was inspected, to be passed as
+         * the starting point when polling the next time.
+         *
+         * @return a UNIX timestamp in milliseconds
+         */
+        public long timestamp() {
+            return timestamp;
+        }
+
+        /**
+         * A hash of the paths of all collections and resources in the subtree, which changes
+         * whenever entries are added, removed or renamed.
+         *
+         * @return the hash, or an empty string if the subtree has not been scanned
+         */
+        public String structure() {
+            return structure;
+        }
+
+        /**
+         * The number of resources modified since the given point in time.
+         *
+         * @return the number of modified resources
+         */
+        public int modified() {
+            return modified;
+        }
+    }
+
+    /**
+     * Size of the buffer through which streamed content is written, in bytes.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
     static {
         try {
             DatabaseManager.registerDatabase(new DatabaseImpl());
@@ -48,18 +298,154 @@ public class ExistDatabase {
         }
     }
 
+    /**
+     * Default maximum number of idle collection handles kept for reuse.
+     */
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    /**
+     * Default time in milliseconds after which idle collection handles are closed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    /**
+     * Delay in milliseconds before the first retry of a failed request, doubled per attempt.
+     */
+    private static final long RETRY_DELAY = 100;
+
+    /**
+     * Upper bound of the delay in milliseconds between retries.
+     */
+    private static final long MAX_RETRY_DELAY = 5000;
+
     private final String user;
     private final String password;
+    private final CollectionPool pool;
+    private final int maxConnections;
+    private final Metrics metrics = new Metrics();
+    private ContentTransport transport;
+    private final Map<String, String> outputProperties = new LinkedHashMap<>();
+    private ConcurrencyLimiter limiter;
+    private int retries;
+    private int connectTimeout;
+    private int replyTimeout;
 
     /**
-     * Creates a database accessor with the given credentials.
+     * Creates a database accessor with the given credentials and default pool settings.
      *
      * @param user     eXist-DB user/account for authenticated access
      * @param password the accounts's password
      */
     public ExistDatabase(String user, String password) {
+        this(user, password, DEFAULT_POOL_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a database accessor with the given credentials and pool settings.
+     *
+     * <p>The XML-RPC clients of remote collections are set up with an HTTP transport keeping as
+     * many connections alive per server as there are pooled handles, so that connections are
+     * reused across calls. As the XML:DB API shares these clients per server URL, the first
+     * accessor to reach a server determines the size of its connection pool.</p>
+     *
+     * @param user        eXist-DB user/account for authenticated access
+     * @param password    the accounts's password
+     * @param poolSize    the maximum number of idle collection handles kept for reuse;
+     *                    0 disables pooling
+     * @param idleTimeout the time in milliseconds after which idle collection handles are closed
+     */
+    public ExistDatabase(String user, String password, int poolSize, long idleTimeout) {
         this.user = user;
         this.password = password;
+        this.pool = new CollectionPool(poolSize, idleTimeout);
+        this.outputProperties.put(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+        this.maxConnections = Math.max(2, poolSize);
+    }
+
+    /**
+     * Sets an alternative transport for resource content.
+     *
+     * <p>Content of resources on servers supported by the transport is fetched and stored
+     * through it; all other operations, including listings and queries, as well as content on
+     * other servers, are still handled via XML:DB.</p>
+     *
+     * @param transport the transport or <code>null</code>, if all content shall be transferred
+     *                  via XML:DB, the default
+     */
+    public void setTransport(ContentTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets serialization options for the XML content of resources.
+     *
+     * <p>Options are set as properties of all collection handles, from which eXist's resource
+     * implementations take them when serializing content, e.g. <code>indent</code> or
+     * <code>omit-xml-declaration</code>. Content is always encoded in UTF-8.</p>
+     *
+     * @param outputProperties serialization options, keyed by name
+     */
+    public void setOutputProperties(Map<String, String> outputProperties) {
+        this.outputProperties.clear();
+        this.outputProperties.putAll(outputProperties);
+        this.outputProperties.put(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Sets a limiter of concurrent requests to the database.
+     *
+     * <p>Every request acquires a permit from the limiter before it is sent, and reports its
+     * latency and outcome back to it, so that the number of requests in flight adapts to the
+     * server's load.</p>
+     *
+     * @param limiter the limiter or <code>null</code>, if requests shall not be limited, the
+     *                default
+     */
+    public void setLimiter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Sets the number of times idempotent reads are retried after timeouts or connection
+     * failures.
+     *
+     * <p>Retries are delayed by a random duration of up to {@value #RETRY_DELAY} ms, doubled
+     * with every attempt, so that clients failing at the same time do not retry in lockstep.
+     * Reads which have already written part of a resource's content are not retried.</p>
+     *
+     * @param retries the maximum number of retries per request, per default 0
+     */
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Sets timeouts for connecting to the database and for awaiting responses.
+     *
+     * <p>Timeouts are configured on the XML-RPC clients of remote collections, which the XML:DB
+     * API shares per server URL. As these clients apply a single reply timeout to all calls,
+     * the reply timeout should allow for the longest-running query, e.g. the installation of a
+     * package. A {@link #setTransport(ContentTransport) transport} has to be configured
+     * separately.</p>
+     *
+     * @param connectTimeout the timeout in milliseconds for establishing connections; 0 waits
+     *                       indefinitely, the default
+     * @param replyTimeout   the timeout in milliseconds for awaiting responses; 0 waits
+     *                       indefinitely, the default
+     */
+    public void setTimeouts(int connectTimeout, int replyTimeout) {
+        this.connectTimeout = Math.max(0, connectTimeout);
+        this.replyTimeout = Math.max(0, replyTimeout);
+    }
+
+    /**
+     * Metrics of the accesses to the database, including the number of
+     * {@link Metrics#ROUND_TRIPS round trips}.
+     *
+     * @return the metrics, shared by all components accessing this database
+     */
+    public Metrics metrics() {
+        return metrics;
     }
 
     /**
@@ -67,12 +453,44 @@ public class ExistDatabase {
      *
      * @param uri the {@link ExistUri eXist-specific URI} of the collection to wrap
      * @return a handle for accessing the collection
-     * @throws XMLDBException propagated from {@link DatabaseManager#getCollection(String)}
+     * @throws XMLDBException propagated from {@link DatabaseManager#getCollection(String)}, or
+     *                        with code {@link ErrorCodes#NO_SUCH_COLLECTION} if the collection
+     *                        does not exist
      */
     public Collection collection(URI uri) throws XMLDBException {
         return new Collection(uri);
     }
 
+    /**
+     * Creates a handle for access to a collection in the database, creating the collection and
+     * its ancestors first, should they not exist.
+     *
+     * @param uri the {@link ExistUri eXist-specific URI} of the collection to wrap
+     * @return a handle for accessing the collection
+     * @throws XMLDBException propagated from
+     *                        {@link CollectionManagementService#createCollection(String)}
+     */
+    public Collection createCollection(URI uri) throws XMLDBException {
+        final org.xmldb.api.base.Collection existing = remote("open", uri, IDEMPOTENT, () ->
+                DatabaseManager.getCollection(ExistUri.toString(uri), user, password)
+        );
+        if (existing == null) {
+            if (uri.getPath().length() <= 1) {
+                throw new IllegalArgumentException(uri.toString());
+            }
+            try (Collection parent = createCollection(uri.resolve(".."))) {
+                final CollectionManagementService service = (CollectionManagementService)
+                        parent.collection.getService("CollectionManagementService", "1.0");
+                pool.release(uri, remote("create", uri, NOT_IDEMPOTENT, () ->
+                        service.createCollection(name(uri))
+                ));
+            }
+        } else {
+            pool.release(uri, existing);
+        }
+        return new Collection(uri);
+    }
+
     /**
      * Creates a handle for access to a resource in the database.
      *
@@ -86,6 +504,132 @@ public class ExistDatabase {
         return new Resource(collection, name);
     }
 
+    /**
+     * A request to the database.
+     *
+     * @param <T> the type of the response
+     * @param <E> the type of errors
+     */
+    private interface Request<T, E extends Exception> {
+
+        T send() throws E;
+    }
+
+    private static final BooleanSupplier IDEMPOTENT = () -> true;
+    private static final BooleanSupplier NOT_IDEMPOTENT = () -> false;
+
+    /**
+     * Sends a request to the database, subject to the configured limiter and retries.
+     *
+     * @param operation  the kind of request, e.g. <code>open</code> or <code>query:page</code>,
+     *                   whose latencies are comparable, or <code>null</code> if the latency
+     *                   depends on the request's payload, e.g. for transfers of content
+     * @param subject    the subject of the request, e.g. a resource URI
+     * @param idempotent determines, after a failed attempt, whether the request may be retried
+     * @param request    the request
+     * @return the response
+     * @throws E the error of the last attempt
+     */
+    private <T, E extends Exception> T remote(String operation, Object subject,
+                                              BooleanSupplier idempotent,
+                                              Request<T, E> request) throws E {
+        for (int attempt = 0; ; attempt++) {
+            metrics.count(Metrics.ROUND_TRIPS, 1);
+            if (limiter != null) {
+                limiter.acquire();
+            }
+            final long start = metrics.start();
+            boolean overloaded = false;
+            try {
+                return request.send();
+            } catch (Exception e) {
+                overloaded = isTransient(e);
+                if (!overloaded || attempt >= retries || !idempotent.getAsBoolean()
+                        || !backoff(attempt)) {
+                    throw e;
+                }
+                metrics.count("retries", 1);
+            } finally {
+                if (limiter != null) {
+                    limiter.release(operation, System.nanoTime() - start, overloaded);
+                }
+                metrics.record("request", start, subject);
+            }
+        }
+    }
+
+    /**
+     * Determines whether an error is caused by a timeout or connection failure.
+     */
+    private static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException || cause instanceof SocketException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a random delay before retrying a request.
+     *
+     * @return <code>false</code> if the waiting thread has been interrupted
+     */
+    private static boolean backoff(int attempt) {
+        final long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(delay + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Sets up the XML-RPC client of a remote collection with a pooling HTTP transport, unless
+     * it has been set up before, and applies the configured timeouts to it.
+     */
+    private org.xmldb.api.base.Collection configure(org.xmldb.api.base.Collection collection) {
+        if (!(collection instanceof RemoteCollection)) {
+            return collection;
+        }
+        final XmlRpcClient client = ((RemoteCollection) collection).getClient();
+        synchronized (client) {
+            if (!(client.getTransportFactory() instanceof XmlRpcCommonsTransportFactory)) {
+                final MultiThreadedHttpConnectionManager connections =
+                        new MultiThreadedHttpConnectionManager();
+                connections.getParams().setDefaultMaxConnectionsPerHost(maxConnections);
+                connections.getParams().setMaxTotalConnections(maxConnections);
+                final XmlRpcCommonsTransportFactory transport =
+                        new XmlRpcCommonsTransportFactory(client);
+                transport.setHttpClient(new HttpClient(connections));
+                client.setTransportFactory(transport);
+            }
+        }
+        final XmlRpcClientConfig config = client.getClientConfig();
+        if (config instanceof XmlRpcClientConfigImpl && (connectTimeout > 0 || replyTimeout > 0)) {
+            ((XmlRpcClientConfigImpl) config).setConnectionTimeout(connectTimeout);
+            ((XmlRpcClientConfigImpl) config).setReplyTimeout(replyTimeout);
+        }
+        return collection;
+    }
+
+    private static String name(URI collection) {
+        final String path = collection.getPath();
+        return path.substring(path.lastIndexOf('/', path.length() - 2) + 1, path.length() - 1);
+    }
+
+    /**
+     * Closes all pooled collection handles.
+     *
+     * @throws XMLDBException propagated from {@link org.xmldb.api.base.Collection#close()}
+     */
+    @Override
+    public void close() throws XMLDBException {
+        pool.close();
+    }
+
     /**
      * Handle for an eXist-db resource.
      *
@@ -94,6 +638,7 @@ public class ExistDatabase {
      */
     public class Resource implements AutoCloseable {
 
+        private final URI uri;
         private final org.xmldb.api.base.Resource resource;
 
         /**
@@ -105,9 +650,12 @@ public class ExistDatabase {
          *                        {@link org.xmldb.api.base.Collection#getResource(String)}
          */
         public Resource(Collection collection, String name) throws XMLDBException {
-            this.resource = collection.collection.getResource(name);
+            this.uri = collection.uri.resolve(name);
+            this.resource = remote("open", uri, IDEMPOTENT, () ->
+                    collection.collection.getResource(name)
+            );
             if (resource == null) {
-                throw new IllegalArgumentException(collection.uri.resolve(name).toString());
+                throw new IllegalArgumentException(uri.toString());
             }
         }
 
@@ -140,30 +688,260 @@ public class ExistDatabase {
         /**
          * The XML content of the resource.
          *
+         * <p>The content is held in memory as a whole; use {@link #transferTo(OutputStream)} for
+         * large documents.</p>
+         *
          * @return the XML content as a string
          * @throws XMLDBException propgated from {@link org.xmldb.api.base.Resource#getContent()}
          */
         public String content() throws XMLDBException {
-            return resource.getContent().toString();
+            return remote(null, uri, IDEMPOTENT, resource::getContent).toString();
         }
 
         /**
          * The binary content of the resource.
+         *
+         * <p>The content is held in memory as a whole; use {@link #transferTo(OutputStream)} for
+         * large resources.</p>
+         *
          * @return the content as a byte array
          * @throws XMLDBException propgated from {@link org.xmldb.api.base.Resource#getContent()}
          */
         public byte[] binaryContent() throws XMLDBException {
-            return (byte[]) resource.getContent();
+            return (byte[]) remote(null, uri, IDEMPOTENT, resource::getContent);
+        }
+
+        /**
+         * Streams the content of the resource.
+         *
+         * <p>eXist's resource implementations retrieve the content in chunks, so that only a
+         * bounded part of it is held in memory at any time. XML content is serialized on the
+         * server according to the {@link #setOutputProperties(Map) serialization options}, and
+         * written without being decoded into a string. Resources not supporting streamed
+         * retrieval are copied in one go. Failed retrievals are only retried as long as no
+         * content has been written.</p>
+         *
+         * @param out the stream to write the content to
+         * @throws XMLDBException propagated from
+         *                        {@link ExtendedResource#getContentIntoAStream(OutputStream)}
+         * @throws IOException    in case of errors while writing to the stream
+         */
+        public void transferTo(OutputStream out) throws XMLDBException, IOException {
+            if (resource instanceof ExtendedResource) {
+                final CountingOutputStream counting = new CountingOutputStream(out);
+                remote(null, uri, () -> counting.count == 0, () -> {
+                    ((ExtendedResource) resource).getContentIntoAStream(counting);
+                    return null;
+                });
+                return;
+            }
+            final Object content = remote(null, uri, IDEMPOTENT, resource::getContent);
+            if (content instanceof byte[]) {
+                out.write((byte[]) content);
+            } else {
+                out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            }
         }
 
         @Override
-        public void close() throws Exception {
+        public void close() throws XMLDBException {
             if (resource != null) {
                 ((EXistResource) resource).freeResources();
             }
         }
     }
 
+    /**
+     * Lists the contents of a collection, optionally including all descendants, as
+     * tab-separated records.
+     *
+     * <p>Each record consists of the entry type (<code>C</code>ollection, <code>B</code>inary or
+     * <code>X</code>ML resource), the modification time in milliseconds, the size, the path of the
+     * parent collection relative to the listed one, and the entry's name. Collections whose
+     * relative paths are contained in the newline-separated <code>$excluded</code> are skipped,
+     * including their descendants.</p>
+     */
+    private static final String LISTING_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $recursive external;",
+            "declare variable $excluded external;",
+            "declare variable $skipped := tokenize($excluded, \"&#10;\");",
+            "declare variable $epoch := xs:dateTime(\"1970-01-01T00:00:00Z\");",
+            "declare function local:list($path as xs:string, $rel as xs:string) as xs:string* {",
+            "  for $name in xmldb:get-child-resources($path)",
+            "  return string-join((",
+            "    if (util:is-binary-doc(concat($path, \"/\", $name))) then \"B\" else \"X\",",
+            "    string(xs:integer((xmldb:last-modified($path, $name) - $epoch)",
+            "      div xs:dayTimeDuration(\"PT0.001S\"))),",
+            "    string(xmldb:size($path, $name)),",
+            "    $rel,",
+            "    $name",
+            "  ), \"&#9;\"),",
+            "  for $name in xmldb:get-child-collections($path)",
+            "  where not(concat($rel, $name, \"/\") = $skipped)",
+            "  return (",
+            "    string-join((\"C\", \"0\", \"0\", $rel, $name), \"&#9;\"),",
+            "    if ($recursive)",
+            "    then local:list(concat($path, \"/\", $name), concat($rel, $name, \"/\"))",
+            "    else ()",
+            "  )",
+            "};",
+            "string-join(local:list($collection, \"\"), \"&#10;\")"
+    );
+
+    /**
+     * Lists a window of a collection's resources as tab-separated records.
+     *
+     * <p>Each record consists of the resource type (<code>B</code>inary or <code>X</code>ML),
+     * the modification time in milliseconds, the size and the resource's name. The window starts
+     * at the 1-based position <code>$start</code> and spans at most <code>$count</code>
+     * resources, in the order the collection holds them.</p>
+     */
+    private static final String PAGE_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $start external;",
+            "declare variable $count external;",
+            "declare variable $epoch := xs:dateTime(\"1970-01-01T00:00:00Z\");",
+            "string-join(",
+            "  for $name in subsequence(xmldb:get-child-resources($collection),",
+            "    xs:integer($start), xs:integer($count))",
+            "  return string-join((",
+            "    if (util:is-binary-doc(concat($collection, \"/\", $name))) then \"B\" else \"X\",",
+            "    string(xs:integer((xmldb:last-modified($collection, $name) - $epoch)",
+            "      div xs:dayTimeDuration(\"PT0.001S\"))),",
+            "    string(xmldb:size($collection, $name)),",
+            "    $name",
+            "  ), \"&#9;\"),",
+            "  \"&#10;\"",
+            ")"
+    );
+
+    /**
+     * Selects those of the newline-separated resource names in <code>$names</code>, which do not
+     * exist in a collection.
+     */
+    private static final String MISSING_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $names external;",
+            "string-join(",
+            "  for $name in tokenize($names, \"&#10;\")",
+            "  let $path := concat($collection, \"/\", $name)",
+            "  where not(doc-available($path) or util:binary-doc-available($path))",
+            "  return $name,",
+            "  \"&#10;\"",
+            ")"
+    );
+
+    /**
+     * Summarizes every collection in a subtree as a tab-separated record.
+     *
+     * <p>Each record consists of the latest modification time of all resources in the
+     * collection's subtree, the number of resources in the subtree, a hash over the names of all
+     * entries in the subtree along with the sizes and modification times of resources, and the
+     * path of the collection relative to the summarized one. Hashes of child collections are
+     * computed first and folded into the hashes of their parents, so that resources replaced with
+     * content of an older modification time still change the hashes of all their ancestors.
+     * Collections whose relative paths are contained in the newline-separated
+     * <code>$excluded</code> are skipped.</p>
+     */
+    private static final String SUMMARY_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $excluded external;",
+            "declare variable $skipped := tokenize($excluded, \"&#10;\");",
+            "declare variable $epoch := xs:dateTime(\"1970-01-01T00:00:00Z\");",
+            "declare function local:summarize($path as xs:string, $rel as xs:string)",
+            "    as element(c) {",
+            "  let $resources :=",
+            "    for $name in xmldb:get-child-resources($path)",
+            "    order by $name",
+            "    return <r n=\"{$name}\" s=\"{xmldb:size($path, $name)}\"",
+            "      m=\"{xs:integer((xmldb:last-modified($path, $name) - $epoch)",
+            "        div xs:dayTimeDuration(\"PT0.001S\"))}\"/>",
+            "  let $children :=",
+            "    for $name in xmldb:get-child-collections($path)",
+            "    where not(concat($rel, $name, \"/\") = $skipped)",
+            "    return local:summarize(concat($path, \"/\", $name), concat($rel, $name, \"/\"))",
+            "  let $modified := max((",
+            "    0,",
+            "    for $r in $resources return xs:integer($r/@m),",
+            "    for $child in $children return xs:integer($child/@m)",
+            "  ))",
+            "  let $count := count($resources)",
+            "    + sum(for $child in $children return xs:integer($child/@c))",
+            "  let $structure := util:hash(string-join((",
+            "    for $r in $resources return string-join(($r/@n, $r/@s, $r/@m), \":\"),",
+            "    for $child in $children order by string($child/@p)",
+            "    return concat($child/@p, \"=\", $child/@h)",
+            "  ), \"/\"), \"md5\")",
+            "  return <c p=\"{$rel}\" m=\"{$modified}\" c=\"{$count}\" h=\"{$structure}\">{",
+            "    $children",
+            "  }</c>",
+            "};",
+            "string-join(",
+            "  for $c in local:summarize($collection, \"\")/descendant-or-self::c",
+            "  return string-join(",
+            "    (string($c/@m), string($c/@c), string($c/@h), string($c/@p)), \"&#9;\"",
+            "  ),",
+            "  \"&#10;\"",
+            ")"
+    );
+
+    /**
+     * Summarizes the state of a collection subtree as a tab-separated record.
+     *
+     * <p>The record consists of the server's current time in milliseconds, a hash of the paths of
+     * all entries in the subtree, and the number of resources modified after
+     * <code>$since</code>. Unless <code>$scan</code> is set, modified XML documents are looked up
+     * via the documents' metadata instead of walking the subtree, leaving the hash empty.
+     * Collections whose relative paths are contained in the newline-separated
+     * <code>$excluded</code> are skipped, including their descendants.</p>
+     */
+    private static final String CHANGES_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $since external;",
+            "declare variable $excluded external;",
+            "declare variable $scan external;",
+            "declare variable $skipped := tokenize($excluded, \"&#10;\")[. != \"\"];",
+            "declare variable $epoch := xs:dateTime(\"1970-01-01T00:00:00Z\");",
+            "declare function local:millis($dateTime as xs:dateTime) as xs:integer {",
+            "  xs:integer(($dateTime - $epoch) div xs:dayTimeDuration(\"PT0.001S\"))",
+            "};",
+            "declare function local:included($rel as xs:string) as xs:boolean {",
+            "  not(some $s in $skipped satisfies starts-with($rel, $s))",
+            "};",
+            "declare function local:scan($path as xs:string, $rel as xs:string) as element()* {",
+            "  for $name in xmldb:get-child-resources($path)",
+            "  let $modified := local:millis(xmldb:last-modified($path, $name))",
+            "  return <r m=\"{$modified gt xs:integer($since)}\">{concat($rel, $name)}</r>,",
+            "  for $name in xmldb:get-child-collections($path)",
+            "  where local:included(concat($rel, $name, \"/\"))",
+            "  return (",
+            "    <c>{concat($rel, $name, \"/\")}</c>,",
+            "    local:scan(concat($path, \"/\", $name), concat($rel, $name, \"/\"))",
+            "  )",
+            "};",
+            "let $now := local:millis(current-dateTime())",
+            "return if ($scan) then",
+            "  let $entries := local:scan($collection, \"\")",
+            "  return string-join((",
+            "    string($now),",
+            "    util:hash(string-join($entries, \"&#10;\"), \"md5\"),",
+            "    string(count($entries[@m = \"true\"]))",
+            "  ), \"&#9;\")",
+            "else",
+            "  let $prefix := concat($collection, \"/\")",
+            "  let $modified := xmldb:find-last-modified-since(",
+            "    collection($collection),",
+            "    $epoch + xs:dayTimeDuration(\"PT0.001S\") * xs:integer($since)",
+            "  )[local:included(substring-after(document-uri(.), $prefix))]",
+            "  return string-join((string($now), \"\", string(count($modified))), \"&#9;\")"
+    );
+
     /**
      * Handle for an eXist-db collection.
      *
@@ -181,7 +959,40 @@ public class ExistDatabase {
                 throw new IllegalArgumentException(uri.toString());
             }
             this.uri = uri;
-            this.collection = DatabaseManager.getCollection(ExistUri.toString(uri), user, password);
+            this.collection = configure(open(uri));
+            if (collection == null) {
+                throw new XMLDBException(ErrorCodes.NO_SUCH_COLLECTION, uri.toString());
+            }
+            for (Map.Entry<String, String> property : outputProperties.entrySet()) {
+                collection.setProperty(property.getKey(), property.getValue());
+            }
+        }
+
+        private org.xmldb.api.base.Collection open(URI uri) throws XMLDBException {
+            final org.xmldb.api.base.Collection pooled = pool.borrow(uri);
+            if (pooled != null) {
+                return pooled;
+            }
+
+            if (uri.getPath().length() > 1) {
+                final URI parentUri = uri.resolve("..");
+                final org.xmldb.api.base.Collection parent = pool.borrow(parentUri);
+                if (parent != null) {
+                    try {
+                        final org.xmldb.api.base.Collection child = remote(
+                                "open", uri, IDEMPOTENT, () -> parent.getChildCollection(name(uri))
+                        );
+                        if (child != null) {
+                            return child;
+                        }
+                    } finally {
+                        pool.release(parentUri, parent);
+                    }
+                }
+            }
+            return remote("open", uri, IDEMPOTENT, () ->
+                    DatabaseManager.getCollection(ExistUri.toString(uri), user, password)
+            );
         }
 
         /**
@@ -192,7 +1003,8 @@ public class ExistDatabase {
          *                        {@link org.xmldb.api.base.Collection#listChildCollections()}
          */
         public String[] collections() throws XMLDBException {
-            return Stream.of(collection.listChildCollections()).sorted().toArray(String[]::new);
+            return Stream.of(remote("list", uri, IDEMPOTENT, collection::listChildCollections))
+                    .sorted().toArray(String[]::new);
         }
 
         /**
@@ -203,12 +1015,402 @@ public class ExistDatabase {
          *                        {@link org.xmldb.api.base.Collection#listResources()}
          */
         public String[] resources() throws XMLDBException {
-            return Stream.of(collection.listResources()).sorted().toArray(String[]::new);
+            return Stream.of(remote("list", uri, IDEMPOTENT, collection::listResources))
+                    .sorted().toArray(String[]::new);
+        }
+
+        /**
+         * Lists the metadata of a page of resources contained in this collection.
+         *
+         * <p>Pages are retrieved via a windowed server-side query, so that only the requested
+         * page is transferred and held in memory. Resources are listed in the order the
+         * collection holds them, which is stable as long as the collection is not modified.</p>
+         *
+         * @param offset the number of resources preceding the page
+         * @param count  the maximum number of resources in the page
+         * @return the metadata of the listed resources; fewer than requested if the collection
+         * holds no more
+         * @throws XMLDBException propagated from the evaluation of the page query
+         */
+        public List<Metadata> resources(int offset, int count) throws XMLDBException {
+            final Map<String, Object> variables = new HashMap<>();
+            variables.put("start", offset + 1);
+            variables.put("count", count);
+            final List<Metadata> page = new ArrayList<>(count);
+            final String result = query("query:page", PAGE_QUERY, variables, IDEMPOTENT);
+            for (String record : result.split("\n")) {
+                if (record.isEmpty()) {
+                    continue;
+                }
+                final String[] fields = record.split("\t", 4);
+                page.add(new Metadata(
+                        fields[3],
+                        "B".equals(fields[0]) ? ResourceType.BINARY : ResourceType.XML,
+                        Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2])
+                ));
+            }
+            return page;
+        }
+
+        /**
+         * Determines which of a batch of resource names do not exist in this collection.
+         *
+         * @param names the names to look up
+         * @return those names, for which this collection holds no resource
+         * @throws XMLDBException propagated from the evaluation of the lookup query
+         */
+        public Set<String> missing(List<String> names) throws XMLDBException {
+            final Set<String> missing = new HashSet<>();
+            final String result = query(
+                    "query:missing",
+                    MISSING_QUERY,
+                    Collections.singletonMap("names", String.join("\n", names)),
+                    IDEMPOTENT
+            );
+            for (String name : result.split("\n")) {
+                if (!name.isEmpty()) {
+                    missing.add(name);
+                }
+            }
+            return missing;
+        }
+
+        /**
+         * Lists the child collections and the metadata of all resources contained in this
+         * collection.
+         *
+         * <p>The listing is retrieved via a single server-side query, saving a round trip per
+         * resource compared to opening {@link Resource resource handles}.</p>
+         *
+         * @return the listing of this collection
+         * @throws XMLDBException propagated from the evaluation of the listing query
+         */
+        public Listing listing() throws XMLDBException {
+            return list(false, Collections.emptySet())
+                    .computeIfAbsent(uri, u -> new Listing());
+        }
+
+        /**
+         * Lists all descendants of this collection.
+         *
+         * <p>The listings of the whole collection subtree are retrieved via a single
+         * server-side query, saving round trips per collection and per resource.</p>
+         *
+         * @return the listings of this collection and all of its descendants, keyed by
+         * collection URI
+         * @throws XMLDBException propagated from the evaluation of the listing query
+         */
+        public SortedMap<URI, Listing> subtree() throws XMLDBException {
+            return subtree(Collections.emptySet());
+        }
+
+        /**
+         * Lists all descendants of this collection, except for excluded subtrees.
+         *
+         * @param excluded the URIs of descendant collections to be skipped, including their
+         *                 descendants; URIs outside of this collection are ignored
+         * @return the listings of this collection and all of its descendants which are not
+         * excluded, keyed by collection URI
+         * @throws XMLDBException propagated from the evaluation of the listing query
+         * @see #subtree()
+         */
+        public SortedMap<URI, Listing> subtree(Set<URI> excluded) throws XMLDBException {
+            final SortedMap<URI, Listing> listings = list(true, excluded);
+            listings.computeIfAbsent(uri, u -> new Listing());
+            return listings;
+        }
+
+        /**
+         * Summarizes this collection and all of its descendants.
+         *
+         * <p>The summaries are computed via a single server-side query, which only yields one
+         * record per collection instead of listing all resources.</p>
+         *
+         * @return the summaries of this collection's subtree and the subtrees of all of its
+         * descendants, keyed by collection URI
+         * @throws XMLDBException propagated from the evaluation of the summary query
+         */
+        public SortedMap<URI, Summary> summaries() throws XMLDBException {
+            return summaries(Collections.emptySet());
+        }
+
+        /**
+         * Summarizes this collection and all of its descendants, except for excluded subtrees.
+         *
+         * @param excluded the URIs of descendant collections to be skipped, including their
+         *                 descendants; URIs outside of this collection are ignored
+         * @return the summaries of this collection's subtree and the subtrees of all of its
+         * descendants which are not excluded, keyed by collection URI
+         * @throws XMLDBException propagated from the evaluation of the summary query
+         * @see #summaries()
+         */
+        public SortedMap<URI, Summary> summaries(Set<URI> excluded) throws XMLDBException {
+            final SortedMap<URI, Summary> summaries = new TreeMap<>();
+            final String result = query(
+                    "query:summary",
+                    SUMMARY_QUERY,
+                    Collections.singletonMap("excluded", relativePaths(excluded)),
+                    IDEMPOTENT
+            );
+            for (String record : result.split("\n")) {
+                if (record.isEmpty()) {
+                    continue;
+                }
+                final String[] fields = record.split("\t", 4);
+                summaries.put(
+                        fields[3].isEmpty() ? uri : uri.resolve(fields[3]),
+                        new Summary(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2])
+                );
+            }
+            return summaries;
+        }
+
+        /**
+         * Polls this collection's subtree for changes.
+         *
+         * <p>Changes are detected via a single server-side query, which only yields a summary
+         * of the subtree instead of a full listing. Without scanning, only XML documents modified
+         * since the given point in time are counted, which the database looks up without walking
+         * the subtree. Scanning the subtree also counts modified binary resources and hashes the
+         * paths of all entries, so that additions, deletions and renames can be detected.</p>
+         *
+         * @param since    the point in time from which on modified resources are counted,
+         *                 usually the {@link Changes#timestamp() timestamp} of the previous poll
+         * @param excluded the URIs of descendant collections to be skipped, including their
+         *                 descendants
+         * @param scan     whether to scan the whole subtree
+         * @return a summary of the subtree's current state, whose
+         * {@link Changes#structure() structure} is empty unless the subtree has been scanned
+         * @throws XMLDBException propagated from the evaluation of the change query
+         */
+        public Changes changes(long since, Set<URI> excluded, boolean scan)
+                throws XMLDBException {
+            final Map<String, Object> variables = new HashMap<>();
+            variables.put("since", Long.toString(since));
+            variables.put("excluded", relativePaths(excluded));
+            variables.put("scan", scan);
+            final String[] fields = query(
+                    scan ? "query:scan" : "query:changes",
+                    CHANGES_QUERY,
+                    variables,
+                    IDEMPOTENT
+            ).split("\t", 3);
+            return new Changes(
+                    Long.parseLong(fields[0]),
+                    fields[1],
+                    Integer.parseInt(fields[2])
+            );
+        }
+
+        private SortedMap<URI, Listing> list(boolean recursive, Set<URI> excluded)
+                throws XMLDBException {
+            final SortedMap<URI, Listing> listings = new TreeMap<>();
+            final Map<String, Object> variables = new HashMap<>();
+            variables.put("recursive", recursive);
+            variables.put("excluded", relativePaths(excluded));
+            final String result = query(
+                    recursive ? "query:subtree" : "query:listing",
+                    LISTING_QUERY, variables, IDEMPOTENT
+            );
+            for (String record : result.split("\n")) {
+                if (record.isEmpty()) {
+                    continue;
+                }
+                final String[] fields = record.split("\t", 5);
+                final String name = fields[4];
+                final URI parent = fields[3].isEmpty() ? uri : uri.resolve(fields[3]);
+                final Listing listing = listings.computeIfAbsent(parent, u -> new Listing());
+                switch (fields[0]) {
+                    case "C":
+                        listing.collections.add(name);
+                        listings.computeIfAbsent(
+                                parent.resolve(name + "/"),
+                                u -> new Listing()
+                        );
+                        break;
+                    default:
+                        listing.resources.put(name, new Metadata(
+                                name,
+                                "B".equals(fields[0]) ? ResourceType.BINARY : ResourceType.XML,
+                                Long.parseLong(fields[1]),
+                                Long.parseLong(fields[2])
+                        ));
+                        break;
+                }
+            }
+            return listings;
+        }
+
+        /**
+         * Joins the paths of descendant collections relative to this one, separated by newlines.
+         */
+        private String relativePaths(Set<URI> collections) {
+            final String prefix = uri.toString();
+            return collections.stream()
+                    .map(URI::toString)
+                    .filter(c -> c.length() > prefix.length() && c.startsWith(prefix))
+                    .map(c -> c.substring(prefix.length()))
+                    .collect(Collectors.joining("\n"));
+        }
+
+        /**
+         * Stores a file as a resource in this collection, replacing an existing resource of
+         * the same name.
+         *
+         * <p>The file's content is streamed from disk and uploaded in chunks.</p>
+         *
+         * @param name         the name of the resource
+         * @param file         the file to store
+         * @param type         whether to store the file as an XML or a binary resource
+         * @param mimeType     the MIME type of the resource, or <code>null</code> to let the
+         *                     database determine it
+         * @param lastModified the modification time to record for the resource
+         * @return the modification time recorded for the resource, or -1 if the resource has
+         * been stored via a {@link #setTransport(ContentTransport) transport}, which does not
+         * allow for setting it
+         * @throws XMLDBException propagated from
+         *                        {@link org.xmldb.api.base.Collection#storeResource(
+         *                        org.xmldb.api.base.Resource)}
+         * @throws IOException    propagated from {@link ContentTransport#store(URI, Path, String)}
+         */
+        public long store(String name, File file, ResourceType type, String mimeType,
+                          long lastModified) throws XMLDBException, IOException {
+            if (transport != null && transport.supports(uri)) {
+                final String contentType = (mimeType != null ? mimeType
+                        : type == ResourceType.XML ? "application/xml"
+                        : "application/octet-stream");
+                remote(null, uri.resolve(name), NOT_IDEMPOTENT, () -> {
+                    transport.store(uri.resolve(name), file.toPath(), contentType);
+                    return null;
+                });
+                return -1;
+            }
+            final org.xmldb.api.base.Resource resource = collection.createResource(
+                    name,
+                    type == ResourceType.BINARY ? BinaryResource.RESOURCE_TYPE
+                            : XMLResource.RESOURCE_TYPE
+            );
+            try {
+                resource.setContent(file);
+                final EXistResource existResource = (EXistResource) resource;
+                if (mimeType != null) {
+                    existResource.setMimeType(mimeType);
+                }
+                existResource.setLastModificationTime(new Date(lastModified));
+                remote(null, uri.resolve(name), NOT_IDEMPOTENT, () -> {
+                    collection.storeResource(resource);
+                    return null;
+                });
+            } finally {
+                ((EXistResource) resource).freeResources();
+            }
+            return lastModified;
+        }
+
+        /**
+         * Streams the content of a resource in this collection, unless it has not been modified
+         * since a given point in time.
+         *
+         * <p>Content is fetched via a {@link #setTransport(ContentTransport) transport}, if one
+         * supports this collection's server, with the condition evaluated by the server.
+         * Otherwise the resource is opened via XML:DB and its modification time is checked
+         * before its content is retrieved. Content is retrieved in chunks and written as it is
+         * received; XML content is serialized according to the configured
+         * {@link #setOutputProperties(Map) serialization options}, in UTF-8.</p>
+         *
+         * @param name            the name of the resource
+         * @param type            whether the resource is an XML or a binary resource
+         * @param ifModifiedSince a UNIX timestamp in milliseconds, or a negative value to fetch
+         *                        the content unconditionally
+         * @param out             the stream to write the content to
+         * @return <code>true</code> if the content has been written, <code>false</code> if it
+         * has not been modified
+         * @throws XMLDBException propagated from {@link Resource#transferTo(OutputStream)}
+         * @throws IOException    propagated from
+         *                        {@link ContentTransport#fetch(URI, long, OutputStream)} or in
+         *                        case of errors while writing to the stream
+         */
+        public boolean fetch(String name, ResourceType type, long ifModifiedSince,
+                             OutputStream out) throws XMLDBException, IOException {
+            if (transport != null && transport.supports(uri)) {
+                final CountingOutputStream counting = new CountingOutputStream(out);
+                return remote(null, uri.resolve(name), () -> counting.count == 0, () ->
+                        transport.fetch(uri.resolve(name), ifModifiedSince, counting)
+                );
+            }
+            try (Resource resource = new Resource(this, name)) {
+                if (ifModifiedSince >= 0 && resource.lastModified() <= ifModifiedSince) {
+                    return false;
+                }
+                resource.transferTo(out);
+                return true;
+            }
+        }
+
+        /**
+         * Evaluates an XQuery in the context of this collection.
+         *
+         * <p>The collection's database path is bound to the external variable
+         * <code>$collection</code>.</p>
+         *
+         * @param xquery    the query to evaluate
+         * @param variables values of further external variables, keyed by variable name
+         * @return the string values of all result items, concatenated
+         * @throws XMLDBException propagated from {@link XQueryService#query(String)}
+         */
+        public String query(String xquery, Map<String, Object> variables)
+                throws XMLDBException {
+            return query(null, xquery, variables, NOT_IDEMPOTENT);
+        }
+
+        private String query(String operation, String xquery, Map<String, Object> variables,
+                             BooleanSupplier idempotent) throws XMLDBException {
+            final XQueryService service =
+                    (XQueryService) collection.getService("XQueryService", "1.0");
+            service.declareVariable("collection", collection.getName());
+            for (Map.Entry<String, Object> variable : variables.entrySet()) {
+                service.declareVariable(variable.getKey(), variable.getValue());
+            }
+
+            return remote(operation, uri, idempotent, () -> {
+                final StringBuilder result = new StringBuilder();
+                final ResourceIterator it = service.query(xquery).getIterator();
+                while (it.hasMoreResources()) {
+                    result.append(it.nextResource().getContent());
+                }
+                return result.toString();
+            });
+        }
+
+        @Override
+        public void close() throws XMLDBException {
+            pool.release(uri, collection);
+        }
+    }
+
+    /**
+     * Counts the bytes written to a stream, so that failed retrievals are only retried as long as
+     * no content has been written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
         }
 
         @Override
-        public void close() throws Exception {
-            collection.close();
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
     }
 }
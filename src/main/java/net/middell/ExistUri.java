@@ -25,6 +25,9 @@ import java.net.URI;
  * <p>As eXist-specific URIs with their <code>xmldb:exist</code> scheme are not RFC-2936-conformant,
  * methods of this class add/strip the scheme in order to allow URI handling via {@link URI}.</p>
  *
+ * <p>URIs of embedded instances, having an empty authority, are represented by their absolute
+ * path, as {@link URI#resolve(URI) resolving} against an empty authority drops it.</p>
+ *
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
 public final class ExistUri {
@@ -34,14 +37,23 @@ public final class ExistUri {
      */
     public static final String SCHEME_PREFIX = "xmldb:exist:";
 
+    /**
+     * Prefix of eXist-DB URIs denoting embedded instances.
+     */
+    private static final String EMBEDDED_PREFIX = SCHEME_PREFIX + "//";
+
     /**
      * Creates a URI from a string, optionally stripping the
      * {@link #SCHEME_PREFIX scheme} of exist-DB URIs.
      *
      * @param uri the string to be converted into a URI
-     * @return a URI, optionally scheme-relative in the case of an exist-DB URI
+     * @return a URI, optionally scheme-relative in the case of an exist-DB URI, or an absolute
+     * path in the case of an exist-DB URI of an embedded instance
      */
     public static URI create(final String uri) {
+        if (uri.startsWith(EMBEDDED_PREFIX + "/")) {
+            return URI.create(uri.substring(EMBEDDED_PREFIX.length()));
+        }
         if (uri.startsWith(SCHEME_PREFIX)) {
             return URI.create(uri.substring(SCHEME_PREFIX.length()));
         }
@@ -53,6 +65,8 @@ public final class ExistUri {
      * {@link #SCHEME_PREFIX scheme} of exist-DB URIs, should it be
      * scheme-relative.
      *
+     * <p>Absolute paths are serialized as URIs of an embedded instance.</p>
+     *
      * @param uri the URI to be serialized
      * @return a string representation of the URI
      */
@@ -61,6 +75,9 @@ public final class ExistUri {
         if (uriStr.startsWith("//")) {
             return SCHEME_PREFIX + uriStr;
         }
+        if (uri.getScheme() == null && uriStr.startsWith("/")) {
+            return EMBEDDED_PREFIX + uriStr;
+        }
         return uriStr;
     }
 
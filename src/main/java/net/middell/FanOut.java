@@ -0,0 +1,279 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task against several server targets concurrently.
+ *
+ * <p>Targets are processed on a bounded pool of worker threads. Optionally, the first target is
+ * processed on its own as a canary; should it fail, all other targets are skipped. A failing
+ * target does not abort the others. Once all targets have been processed, the outcome and the
+ * elapsed time per target are logged, and the first failure is rethrown, with all others
+ * attached as suppressed exceptions.</p>
+ *
+ * <p>With more than one target, messages logged by a task are prefixed with its target.</p>
+ *
+ * @see ServerTarget
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class FanOut {
+
+    /**
+     * A task run against a single target.
+     */
+    public interface Task {
+
+        /**
+         * Runs the task.
+         *
+         * @param target the target
+         * @param log    log for reporting progress, prefixed with the target if there are
+         *               several
+         * @throws Exception in case of errors while processing the target
+         */
+        void run(ServerTarget target, Log log) throws Exception;
+    }
+
+    private final Log log;
+    private int parallelism = 1;
+    private boolean canaryFirst;
+
+    /**
+     * Creates a fan-out.
+     *
+     * @param log log for reporting outcomes
+     */
+    public FanOut(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets the number of targets processed concurrently.
+     *
+     * @param parallelism the number of worker threads, per default 1
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Determines whether the first target is processed on its own, before all others.
+     *
+     * @param canaryFirst <code>false</code> per default
+     */
+    public void setCanaryFirst(boolean canaryFirst) {
+        this.canaryFirst = canaryFirst;
+    }
+
+    /**
+     * Runs a task against a list of targets.
+     *
+     * @param targets the targets, the first one being the canary
+     * @param task    the task
+     * @throws Exception the first failure of any target
+     */
+    public void run(List<ServerTarget> targets, Task task) throws Exception {
+        final Map<ServerTarget, Outcome> outcomes = new LinkedHashMap<>();
+        List<ServerTarget> pending = targets;
+        if (canaryFirst && targets.size() > 1) {
+            final ServerTarget canary = targets.get(0);
+            final Outcome outcome = execute(canary, task, true);
+            outcomes.put(canary, outcome);
+            pending = (outcome.error == null
+                    ? targets.subList(1, targets.size()) : new ArrayList<>());
+        }
+
+        if (!pending.isEmpty()) {
+            final boolean prefixed = (targets.size() > 1);
+            final ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(parallelism, pending.size())
+            );
+            try {
+                final Map<ServerTarget, Future<Outcome>> running = new LinkedHashMap<>();
+                for (ServerTarget target : pending) {
+                    running.put(target, executor.submit(() -> execute(target, task, prefixed)));
+                }
+                for (Map.Entry<ServerTarget, Future<Outcome>> target : running.entrySet()) {
+                    try {
+                        outcomes.put(target.getKey(), target.getValue().get());
+                    } catch (ExecutionException e) {
+                        outcomes.put(target.getKey(), new Outcome(0, e.getCause()));
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        Throwable failure = null;
+        for (ServerTarget target : targets) {
+            final Outcome outcome = outcomes.get(target);
+            if (outcome != null && outcome.error != null) {
+                if (failure == null) {
+                    failure = outcome.error;
+                } else {
+                    failure.addSuppressed(outcome.error);
+                }
+            }
+            if (targets.size() == 1) {
+                continue;
+            }
+            if (outcome == null) {
+                log.warn(String.format("[%s] skipped", target));
+            } else if (outcome.error == null) {
+                log.info(String.format("[%s] succeeded in %d ms", target, outcome.elapsed));
+            } else {
+                log.warn(String.format("[%s] failed after %d ms: %s",
+                        target, outcome.elapsed, outcome.error.getMessage()));
+            }
+        }
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+    }
+
+    private Outcome execute(ServerTarget target, Task task, boolean prefixed) {
+        final long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            task.run(target, prefixed ? new PrefixedLog(log, "[" + target + "] ") : log);
+        } catch (Exception e) {
+            error = e;
+        }
+        return new Outcome(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error);
+    }
+
+    private static class Outcome {
+
+        private final long elapsed;
+        private final Throwable error;
+
+        private Outcome(long elapsed, Throwable error) {
+            this.elapsed = elapsed;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Prefixes all messages of a log.
+     */
+    private static class PrefixedLog implements Log {
+
+        private final Log log;
+        private final String prefix;
+
+        private PrefixedLog(Log log, String prefix) {
+            this.log = log;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return log.isDebugEnabled();
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+            log.debug(prefix + content);
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+            log.debug(prefix + content, error);
+        }
+
+        @Override
+        public void debug(Throwable error) {
+            log.debug(prefix + error, error);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return log.isInfoEnabled();
+        }
+
+        @Override
+        public void info(CharSequence content) {
+            log.info(prefix + content);
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+            log.info(prefix + content, error);
+        }
+
+        @Override
+        public void info(Throwable error) {
+            log.info(prefix + error, error);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return log.isWarnEnabled();
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            log.warn(prefix + content);
+        }
+
+        @Override
+        public void warn(CharSequence content, Throwable error) {
+            log.warn(prefix + content, error);
+        }
+
+        @Override
+        public void warn(Throwable error) {
+            log.warn(prefix + error, error);
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return log.isErrorEnabled();
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            log.error(prefix + content);
+        }
+
+        @Override
+        public void error(CharSequence content, Throwable error) {
+            log.error(prefix + content, error);
+        }
+
+        @Override
+        public void error(Throwable error) {
+            log.error(prefix + error, error);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Low-overhead instrumentation of a goal's execution.
+ *
+ * <p>Metrics consist of named counters, e.g. of round trips or transferred bytes, and of timers
+ * per phase of processing, e.g. listing, fetching or compressing. Timers record their samples in
+ * histograms with power-of-two buckets and keep track of the slowest subjects, e.g. resources.
+ * All operations are thread-safe and lock-free, except for recording one of the slowest
+ * subjects.</p>
+ *
+ * <p>Metrics can be reported as a JSON document and summarized in rate-limited progress
+ * messages, which replace logging every processed file.</p>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class Metrics {
+
+    /**
+     * Counter of requests sent to the database.
+     */
+    public static final String ROUND_TRIPS = "roundTrips";
+
+    /**
+     * The default interval between progress messages, in milliseconds.
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 5000;
+
+    private static final int SLOWEST = 10;
+
+    private final long started = System.currentTimeMillis();
+    private final SortedMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final SortedMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastProgress = new AtomicLong(System.currentTimeMillis());
+
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    /**
+     * Sets the minimum interval between progress messages.
+     *
+     * @param progressInterval the interval in milliseconds
+     */
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Increments a counter.
+     *
+     * @param counter the name of the counter
+     * @param delta   the amount to add
+     */
+    public void count(String counter, long delta) {
+        counters.computeIfAbsent(counter, c -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * The current value of a counter.
+     *
+     * @param counter the name of the counter
+     * @return the counter's value, 0 if it has never been incremented
+     */
+    public long get(String counter) {
+        final LongAdder adder = counters.get(counter);
+        return (adder == null ? 0 : adder.sum());
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return the start time, to be passed to {@link #record(String, long, Object)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param phase   the phase the operation belongs to
+     * @param start   the start time, as returned by {@link #start()}
+     * @param subject the subject of the operation, e.g. a resource URI, or <code>null</code>
+     */
+    public void record(String phase, long start, Object subject) {
+        timers.computeIfAbsent(phase, p -> new Timer()).record(System.nanoTime() - start, subject);
+    }
+
+    /**
+     * Logs a progress message, unless one has been logged within the progress interval.
+     *
+     * @param log     the log to write the message to
+     * @param message supplier of the message, only invoked if the message is logged
+     */
+    public void progress(Log log, Supplier<String> message) {
+        final long now = System.currentTimeMillis();
+        final long last = lastProgress.get();
+        if (now - last >= progressInterval && lastProgress.compareAndSet(last, now)) {
+            log.info(message.get());
+        }
+    }
+
+    /**
+     * Summarizes the counters in a single line.
+     *
+     * @return the names and values of all counters
+     */
+    public String summary() {
+        final StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            summary.append(summary.length() == 0 ? "" : ", ")
+                    .append(counter.getKey()).append('=').append(counter.getValue().sum());
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Summarizes the timers in a single line.
+     *
+     * @return the names of all phases with their median and 99th percentile latencies
+     */
+    public String latencies() {
+        final StringBuilder latencies = new StringBuilder();
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            latencies.append(latencies.length() == 0 ? "" : ", ")
+                    .append(String.format("%s p50=%.1f ms p99=%.1f ms",
+                            timer.getKey(),
+                            millis(timer.getValue().percentile(0.5)),
+                            millis(timer.getValue().percentile(0.99))));
+        }
+        return latencies.toString();
+    }
+
+    /**
+     * Writes a report of all counters and timers as a JSON document.
+     *
+     * @param file the report file, replaced should it exist
+     * @param goal the name of the reported goal
+     * @throws IOException in case of errors while writing the report
+     */
+    public void writeReport(Path file, String goal) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"goal\": " + json(goal) + ",\n");
+            out.write("  \"started\": " + started + ",\n");
+            out.write("  \"durationMillis\": " + (System.currentTimeMillis() - started) + ",\n");
+            out.write("  \"counters\": {");
+            String separator = "\n";
+            for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                out.write(separator + "    " + json(counter.getKey()) + ": "
+                        + counter.getValue().sum());
+                separator = ",\n";
+            }
+            out.write("\n  },\n");
+            out.write("  \"phases\": {");
+            separator = "\n";
+            for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+                out.write(separator + "    " + json(timer.getKey()) + ": ");
+                timer.getValue().write(out);
+                separator = ",\n";
+            }
+            out.write("\n  }\n");
+            out.write("}\n");
+        }
+    }
+
+    private static String json(Object value) {
+        final String str = String.valueOf(value);
+        final StringBuilder json = new StringBuilder(str.length() + 2).append('"');
+        for (char c : str.toCharArray()) {
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Histogram of durations with power-of-two buckets of nanoseconds, plus the slowest subjects.
+     */
+    private static class Timer {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final PriorityQueue<Sample> slowest =
+                new PriorityQueue<>(Comparator.comparingLong(s -> s.nanos));
+        private volatile long slowestThreshold = 0;
+
+        private void record(long nanos, Object subject) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+            if (subject != null && nanos > slowestThreshold) {
+                synchronized (slowest) {
+                    slowest.add(new Sample(subject, nanos));
+                    if (slowest.size() > SLOWEST) {
+                        slowest.remove();
+                    }
+                    if (slowest.size() == SLOWEST) {
+                        slowestThreshold = slowest.peek().nanos;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Approximates a percentile by the upper bound of the bucket it falls into.
+         */
+        private long percentile(double percentile) {
+            final long rank = (long) Math.ceil(count.sum() * percentile);
+            long seen = 0;
+            for (int bc = 0; bc < buckets.length(); bc++) {
+                seen += buckets.get(bc);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max.get(), (bc == 0 ? 0 : 1L << Math.min(62, bc)));
+                }
+            }
+            return max.get();
+        }
+
+        private void write(Writer out) throws IOException {
+            out.write("{\n");
+            out.write("      \"count\": " + count.sum() + ",\n");
+            out.write("      \"totalMillis\": " + millis(total.sum()) + ",\n");
+            out.write("      \"p50Millis\": " + millis(percentile(0.5)) + ",\n");
+            out.write("      \"p90Millis\": " + millis(percentile(0.9)) + ",\n");
+            out.write("      \"p99Millis\": " + millis(percentile(0.99)) + ",\n");
+            out.write("      \"maxMillis\": " + millis(max.get()) + ",\n");
+            out.write("      \"slowest\": [");
+
+            final List<Sample> samples;
+            synchronized (slowest) {
+                samples = new ArrayList<>(slowest);
+            }
+            samples.sort(Comparator.comparingLong((Sample s) -> s.nanos).reversed());
+            String separator = "\n";
+            for (Sample sample : samples) {
+                out.write(separator + "        { \"subject\": " + json(sample.subject)
+                        + ", \"millis\": " + millis(sample.nanos) + " }");
+                separator = ",\n";
+            }
+            out.write(samples.isEmpty() ? "]\n" : "\n      ]\n");
+            out.write("    }");
+        }
+    }
+
+    private static class Sample {
+
+        private final Object subject;
+        private final long nanos;
+
+        private Sample(Object subject, long nanos) {
+            this.subject = subject;
+            this.nanos = nanos;
+        }
+    }
+}
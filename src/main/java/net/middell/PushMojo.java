@@ -0,0 +1,106 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Uploads local changes of resources into an eXist-db instance.
+ *
+ * <p>This goal is the reverse of the {@link SyncMojo sync goal} and shares its configuration:
+ * files in the mapped directories are uploaded into their mapped collections if they are new or
+ * have changed locally, so that edits in the filesystem can be deployed without rebuilding and
+ * reinstalling the application's XAR archive. Resources in the database without a local
+ * counterpart are left untouched.</p>
+ *
+ * <p>Changes can be pushed to several {@link ServerTarget server targets} at once; the digests of
+ * local files are then computed only once for all of them.</p>
+ *
+ * @see Uploader
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@Mojo(name = "push")
+public class PushMojo extends AbstractSyncMojo {
+
+    /**
+     * The number of batches of changed files to be uploaded concurrently.
+     */
+    @Parameter(defaultValue = "1")
+    private int pushThreads;
+
+    /**
+     * The maximum number of changed files in a collection uploaded as one batch.
+     *
+     * <p>A batch is uploaded by one thread via one collection handle, which is listed once after
+     * the upload. Every file is still stored with a request of its own.</p>
+     */
+    @Parameter(defaultValue = "100")
+    private int pushBatchSize;
+
+    @Override
+    public final void execute() throws MojoExecutionException {
+        try {
+            if (!isConfigured()) {
+                return;
+            }
+
+            final SortedMap<URI, File> mappings = initMappings();
+            final SyncManifest manifest = manifest();
+            final Predicate<String> exclusion = exclusion();
+            final SyncFilter filter = filter(mappings);
+            final Map<Path, byte[]> digests = new ConcurrentHashMap<>();
+            for (ServerTarget target : targets()) {
+                mappings.keySet().forEach(uri -> manifest.retain(target.resolve(uri)));
+            }
+            try {
+                fanOut("push", (target, db, log) -> {
+                    final SortedMap<URI, File> targetMappings = new TreeMap<>();
+                    mappings.forEach((uri, dir) -> targetMappings.put(target.resolve(uri), dir));
+
+                    final Uploader uploader = new Uploader(db, log);
+                    uploader.setManifest(manifest);
+                    uploader.setExclusion(exclusion);
+                    uploader.setFilter(targetMappings.equals(mappings)
+                            ? filter : filter(targetMappings));
+                    uploader.setDigests(digests);
+                    uploader.setThreads(pushThreads);
+                    uploader.setBatchSize(pushBatchSize);
+                    uploader.push(targetMappings);
+                });
+            } finally {
+                manifest.store();
+            }
+        } catch (Exception e) {
+            throw new MojoExecutionException(
+                    String.format("Error while pushing to '%s'", syncBase),
+                    e
+            );
+        }
+    }
+}
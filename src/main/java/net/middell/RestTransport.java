@@ -0,0 +1,241 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transfers resource content via eXist's REST interface.
+ *
+ * <p>Unlike XML-RPC, which encodes binary content in Base64 and wraps every call in an XML
+ * envelope, the REST interface transfers raw bytes. Responses are requested with gzip content
+ * encoding; requests are sent over persistent HTTP connections, kept alive by the JVM.</p>
+ *
+ * <p>The REST endpoint of a server is derived from the URIs of its collections, replacing the
+ * <code>xmlrpc</code> path segment preceding the database root with <code>rest</code>, e.g.
+ * <code>xmldb:exist://localhost:8080/exist/xmlrpc/db/apps/</code> with
+ * <code>http://localhost:8080/exist/rest/db/apps/</code>. URIs of embedded instances are not
+ * supported.</p>
+ *
+ * <p>Fetches can be made conditional on a resource's modification time, in which case unchanged
+ * resources only cost an empty <code>304 Not Modified</code> response. Entity tags returned by
+ * the server are remembered and sent along with conditional requests for the same version of a
+ * resource.</p>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class RestTransport implements ContentTransport {
+
+    private static final String XMLRPC_SEGMENT = "/xmlrpc/db";
+    private static final String REST_SEGMENT = "/rest/db";
+
+    private final String scheme;
+    private final String authorization;
+    private final Map<URI, Version> versions = new ConcurrentHashMap<>();
+    private String serialization = "";
+    private int timeout;
+
+    /**
+     * Creates a REST transport.
+     *
+     * @param scheme   the scheme of REST endpoints, either <code>http</code> or
+     *                 <code>https</code>
+     * @param user     eXist-DB user/account for authenticated access
+     * @param password the accounts's password
+     */
+    public RestTransport(String scheme, String user, String password) {
+        this.scheme = scheme;
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(
+                (user + ":" + password).getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * Sets serialization options for the XML content of fetched resources.
+     *
+     * <p>Options are passed as request parameters, prefixed with an underscore, e.g.
+     * <code>_indent=no</code>.</p>
+     *
+     * @param outputProperties serialization options, keyed by name
+     */
+    public void setOutputProperties(Map<String, String> outputProperties) {
+        final StringBuilder parameters = new StringBuilder();
+        for (Map.Entry<String, String> property : outputProperties.entrySet()) {
+            try {
+                parameters.append(parameters.length() == 0 ? "?_" : "&_")
+                        .append(URLEncoder.encode(property.getKey(), "UTF-8"))
+                        .append('=')
+                        .append(URLEncoder.encode(property.getValue(), "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        this.serialization = parameters.toString();
+    }
+
+    /**
+     * Sets timeouts for connecting to the server and for reading from responses.
+     *
+     * @param timeout the timeout in milliseconds; 0 waits indefinitely, the default
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
+    }
+
+    @Override
+    public boolean supports(URI uri) {
+        return endpoint(uri) != null;
+    }
+
+    /**
+     * Derives the REST endpoint of a collection or resource.
+     *
+     * @param uri the {@link ExistUri eXist-specific URI} of a collection or resource
+     * @return the HTTP URI of the collection or resource, or <code>null</code> if it cannot be
+     * reached via REST
+     */
+    public URI endpoint(URI uri) {
+        final String path = uri.getRawPath();
+        final int root = (path == null ? -1 : path.indexOf(XMLRPC_SEGMENT));
+        if (uri.getRawAuthority() == null || root < 0) {
+            return null;
+        }
+        return URI.create(scheme + "://" + uri.getRawAuthority() + path.substring(0, root)
+                + REST_SEGMENT + path.substring(root + XMLRPC_SEGMENT.length()));
+    }
+
+    @Override
+    public boolean fetch(URI resource, long ifModifiedSince, OutputStream out)
+            throws IOException {
+        final HttpURLConnection connection = open(resource, serialization, "GET");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (ifModifiedSince >= 0) {
+            connection.setIfModifiedSince(ifModifiedSince);
+            final Version version = versions.get(resource);
+            if (version != null && version.lastModified == ifModifiedSince / 1000 * 1000) {
+                connection.setRequestProperty("If-None-Match", version.etag);
+            }
+        }
+        final int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            drain(connection.getInputStream());
+            return false;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw error(connection);
+        }
+        final String etag = connection.getHeaderField("ETag");
+        if (etag != null) {
+            versions.put(resource, new Version(connection.getLastModified(), etag));
+        }
+        try (InputStream in = ("gzip".equalsIgnoreCase(connection.getContentEncoding())
+                ? new GZIPInputStream(connection.getInputStream(), ExistDatabase.CHUNK_SIZE)
+                : connection.getInputStream())) {
+            final byte[] buf = new byte[ExistDatabase.CHUNK_SIZE];
+            for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+                out.write(buf, 0, read);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void store(URI resource, Path file, String contentType) throws IOException {
+        final HttpURLConnection connection = open(resource, "", "PUT");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(Files.size(file));
+        connection.setRequestProperty("Content-Type", contentType);
+        try (OutputStream out = connection.getOutputStream()) {
+            Files.copy(file, out);
+        }
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_OK
+                && status != HttpURLConnection.HTTP_NO_CONTENT) {
+            throw error(connection);
+        }
+        drain(connection.getInputStream());
+        versions.remove(resource);
+    }
+
+    private HttpURLConnection open(URI resource, String parameters, String method)
+            throws IOException {
+        final URI endpoint = endpoint(resource);
+        if (endpoint == null) {
+            throw new IllegalArgumentException(resource.toString());
+        }
+        final HttpURLConnection connection = (HttpURLConnection)
+                new URL(endpoint.toString() + parameters).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Authorization", authorization);
+        return connection;
+    }
+
+    private static IOException error(HttpURLConnection connection) throws IOException {
+        drain(connection.getErrorStream());
+        return new IOException(String.format(
+                "%s %s: %d %s",
+                connection.getRequestMethod(),
+                connection.getURL(),
+                connection.getResponseCode(),
+                connection.getResponseMessage()
+        ));
+    }
+
+    /**
+     * Consumes the remainder of a response body, so that its connection can be reused.
+     */
+    private static void drain(InputStream response) throws IOException {
+        if (response == null) {
+            return;
+        }
+        try (InputStream in = response) {
+            final byte[] buf = new byte[ExistDatabase.CHUNK_SIZE];
+            while (in.read(buf) >= 0) {
+                continue;
+            }
+        }
+    }
+
+    private static class Version {
+
+        private final long lastModified;
+        private final String etag;
+
+        private Version(long lastModified, String etag) {
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+    }
+}
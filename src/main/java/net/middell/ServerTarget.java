@@ -0,0 +1,84 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.net.URI;
+
+/**
+ * One of several eXist-db nodes, changes are pushed or packages are deployed to.
+ *
+ * <p>Every target refers to a <code>&lt;server/&gt;</code> entry in the Maven settings providing
+ * its credentials. Should a host be given, it replaces host and port of all configured database
+ * URIs when accessing the target, so that the same collections are addressed on every node.
+ * Should a transport be given, it replaces the configured one for this target.</p>
+ *
+ * <pre>
+ * &lt;serverTarget&gt;
+ *   &lt;serverId&gt;exist-node1&lt;/serverId&gt;
+ *   &lt;host&gt;node1.example.org:8080&lt;/host&gt;
+ *   &lt;transport&gt;https&lt;/transport&gt;
+ * &lt;/serverTarget&gt;
+ * </pre>
+ *
+ * @see FanOut
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class ServerTarget {
+
+    /**
+     * The id of the <code>&lt;server/&gt;</code> entry in the Maven settings which provides
+     * credentials for accessing the node.
+     */
+    @Parameter
+    public String serverId;
+
+    /**
+     * Host and port of the node, or <code>null</code> to use the configured URIs as they are.
+     */
+    @Parameter
+    public String host;
+
+    /**
+     * The transport via which resource content is transferred to and from the node, i.e.
+     * <code>xmlrpc</code>, <code>http</code> or <code>https</code>, or <code>null</code> to use
+     * the configured one.
+     */
+    @Parameter
+    public String transport;
+
+    /**
+     * Addresses a database URI on this node.
+     *
+     * @param uri an {@link ExistUri eXist-specific URI}
+     * @return the URI with host and port replaced, or the given URI in case no host has been
+     * configured or it denotes an embedded instance
+     */
+    public URI resolve(URI uri) {
+        if (host == null || uri.getRawAuthority() == null) {
+            return uri;
+        }
+        return URI.create("//" + host + uri.getRawPath());
+    }
+
+    @Override
+    public String toString() {
+        return (host == null ? serverId : serverId + "@" + host);
+    }
+}
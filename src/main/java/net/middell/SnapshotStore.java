@@ -0,0 +1,154 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A directory of snapshots of embedded database instances' home directories.
+ *
+ * <p>Snapshots are keyed, e.g. by a fingerprint of the installed package, and immutable once
+ * stored: a snapshot is copied into a temporary sibling directory first, which is then atomically
+ * renamed, so that concurrent builds sharing a snapshot directory never see a partial one. Should
+ * two builds store a snapshot with the same key, the first one wins.</p>
+ *
+ * <p>Snapshots are restored by copying them. Hard links are not an option, as the database
+ * updates its page files in place and would thereby modify the snapshot.</p>
+ *
+ * @see StartMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+class SnapshotStore {
+
+    private final Path directory;
+
+    /**
+     * Creates a store.
+     *
+     * @param directory the directory snapshots are kept in, created on demand
+     */
+    SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Copies a snapshot into a directory.
+     *
+     * @param key    the key of the snapshot
+     * @param target the directory to restore the snapshot to; existing files are replaced
+     * @return <code>true</code> if the snapshot exists and has been restored
+     * @throws IOException in case of errors while copying the snapshot
+     */
+    boolean restore(String key, Path target) throws IOException {
+        final Path snapshot = directory.resolve(key);
+        if (!Files.isDirectory(snapshot)) {
+            return false;
+        }
+        copy(snapshot, target);
+        return true;
+    }
+
+    /**
+     * Stores a snapshot of a directory, unless one with the same key exists already.
+     *
+     * @param key    the key of the snapshot
+     * @param source the directory to take the snapshot of
+     * @throws IOException in case of errors while copying the directory
+     */
+    void store(String key, Path source) throws IOException {
+        final Path snapshot = directory.resolve(key);
+        if (Files.isDirectory(snapshot)) {
+            return;
+        }
+        Files.createDirectories(directory);
+        final Path tmp = Files.createTempDirectory(directory, "." + key + "-");
+        try {
+            copy(source, tmp);
+            Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!Files.isDirectory(snapshot)) {
+                throw e;
+            }
+            // stored concurrently by another build
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    /**
+     * Recursively copies a directory, replacing existing files.
+     *
+     * @param source the directory to copy
+     * @param target the directory to copy to, created if necessary
+     * @throws IOException in case of errors while copying
+     */
+    static void copy(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Recursively deletes a directory, should it exist.
+     *
+     * @param path the directory to delete
+     * @throws IOException in case of errors while deleting
+     */
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
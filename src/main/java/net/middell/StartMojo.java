@@ -0,0 +1,187 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Starts an {@link EmbeddedExist embedded eXist-db instance} in the JVM of the build and installs
+ * the package built by the {@link XarMojo xar goal} into it, e.g. for running integration tests
+ * without an external server.
+ *
+ * <p>The instance keeps its data in a freshly created home directory and runs until it is stopped
+ * by the {@link StopMojo stop goal} or the build ends. It is accessible in-process via
+ * <code>xmldb:exist:///db/</code> as user <code>admin</code> with an empty password, e.g. by the
+ * plugin's other goals.</p>
+ *
+ * <p>Initializing a database and installing a package into it takes much longer than copying the
+ * resulting files. After the first start with a given package, the instance's home directory is
+ * therefore stored as a snapshot, keyed by a fingerprint of the package file, the instance's
+ * configuration and the versions of eXist-db and of the plugin. Subsequent starts with the same
+ * package restore the snapshot instead.</p>
+ *
+ * <p>Sample configuration:</p>
+ *
+ * <pre>{@literal
+<executions>
+  <execution>
+    <goals>
+      <goal>start</goal>
+      <goal>stop</goal>
+    </goals>
+  </execution>
+</executions>
+ * }</pre>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@Mojo(name = "start", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST)
+public class StartMojo extends AbstractMojo {
+
+    /**
+     * Key of the running instance in the plugin context.
+     */
+    static final String INSTANCE = EmbeddedExist.class.getName();
+
+    /**
+     * Key of the eXist-db artifact among the plugin's dependencies.
+     */
+    private static final String EXIST_ARTIFACT = "org.exist-db:existdb-core";
+
+    /**
+     * The package file to be installed; if it does not exist, an empty instance is started.
+     */
+    @Parameter(
+            defaultValue = "${project.build.directory}/${project.build.finalName}.xar",
+            required = true)
+    private File xarFile;
+
+    /**
+     * The home directory of the embedded instance, deleted and recreated on start.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/existdb", required = true)
+    private File embeddedHome;
+
+    /**
+     * The directory in which snapshots of initialized instances are kept.
+     *
+     * <p>Snapshots are never removed by the plugin. The directory can be shared by builds of
+     * different projects and by concurrent builds, e.g. as a cached directory on a CI server.</p>
+     */
+    @Parameter(defaultValue = "${user.home}/.existdb/snapshots", required = true)
+    private File snapshotDirectory;
+
+    /**
+     * Whether to store and restore snapshots of initialized instances.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean snapshot;
+
+    @Parameter(defaultValue = "${plugin}", required = true, readonly = true)
+    private PluginDescriptor plugin;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final Map<Object, Object> context = getPluginContext();
+        if (context.get(INSTANCE) != null) {
+            getLog().warn("Embedded instance already running.");
+            return;
+        }
+        final Path home = embeddedHome.toPath();
+        final boolean install = xarFile.isFile();
+        if (!install) {
+            getLog().warn(String.format("'%s' does not exist; starting empty instance", xarFile));
+        }
+        try {
+            final long start = System.currentTimeMillis();
+            SnapshotStore.delete(home);
+
+            final SnapshotStore snapshots = new SnapshotStore(snapshotDirectory.toPath());
+            final String xarHash = (install
+                    ? DeployMojo.hex(Synchronizer.digest(xarFile.toPath())) : null);
+            final String key = (install ? key(xarHash) : null);
+            if (snapshot && install && snapshots.restore(key, home)) {
+                getLog().info(String.format("Restored snapshot %s of '%s'", key, xarFile));
+            } else if (install) {
+                try (EmbeddedExist exist = new EmbeddedExist(home)) {
+                    install(exist, xarHash);
+                }
+                if (snapshot) {
+                    snapshots.store(key, home);
+                    getLog().info(String.format("Stored snapshot %s of '%s'", key, xarFile));
+                }
+            }
+
+            context.put(INSTANCE, new EmbeddedExist(home));
+            getLog().info(String.format(
+                    "Started embedded instance in '%s' in %d ms",
+                    home, System.currentTimeMillis() - start
+            ));
+        } catch (MojoFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MojoExecutionException(
+                    String.format("Error while starting embedded instance in '%s'", home),
+                    e
+            );
+        }
+    }
+
+    private void install(EmbeddedExist exist, String xarHash) throws Exception {
+        final String packageName = DeployMojo.packageName(xarFile);
+        final URI collectionUri = EmbeddedExist.ROOT.resolve("system/repo/");
+        try (ExistDatabase db = exist.database();
+             ExistDatabase.Collection collection = db.createCollection(collectionUri)) {
+            DeployMojo.install(collection, collectionUri, xarFile, packageName, xarHash, getLog());
+        }
+    }
+
+    /**
+     * Fingerprints the package file together with the instance's configuration and the versions
+     * of eXist-db and of the plugin, as snapshots are bound to both the data format and the
+     * installation procedure.
+     */
+    private String key(String xarHash) throws Exception {
+        final Artifact exist = plugin.getArtifactMap().get(EXIST_ARTIFACT);
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(EmbeddedExist.configuration());
+        for (String version : new String[] {
+                exist == null ? "" : exist.getVersion(), plugin.getVersion()
+        }) {
+            digest.update(version.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(xarHash.getBytes(StandardCharsets.US_ASCII));
+        return DeployMojo.hex(digest.digest());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/**
+ * Stops the {@link EmbeddedExist embedded eXist-db instance} started by the
+ * {@link StartMojo start goal}.
+ *
+ * <p>The instance's home directory is kept, so that its content can be inspected after failed
+ * integration tests.</p>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@Mojo(name = "stop", defaultPhase = LifecyclePhase.POST_INTEGRATION_TEST)
+public class StopMojo extends AbstractMojo {
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        final EmbeddedExist exist = (EmbeddedExist) getPluginContext().remove(StartMojo.INSTANCE);
+        if (exist == null) {
+            getLog().warn("No embedded instance running.");
+            return;
+        }
+        try {
+            exist.close();
+            getLog().info(String.format("Stopped embedded instance in '%s'", exist.home()));
+        } catch (RuntimeException e) {
+            throw new MojoExecutionException("Error while stopping embedded instance", e);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides which collections and resources are synced, based on a list of
+ * {@link SyncRule include/exclude rules}.
+ *
+ * <p>The first rule matching a path decides whether it is included or excluded; paths matching no
+ * rule are included. Rules are resolved against every mapped collection and indexed in a trie by
+ * the literal path segments they start with, so that only rules whose literal prefix matches a
+ * path are evaluated, with a lookup taking time proportional to the path's depth.</p>
+ *
+ * <p>Excluded collections are skipped as a whole, including all of their descendants; rules for
+ * paths within excluded collections never apply. Collections excluded by literal paths are
+ * skipped by server-side listings already.</p>
+ *
+ * @see Synchronizer
+ * @see Uploader
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class SyncFilter {
+
+    private static final String REGEX_PREFIX = "regex:";
+
+    private final Node root = new Node();
+    private final Set<URI> excludedCollections = new TreeSet<>();
+
+    /**
+     * Compiles a list of rules.
+     *
+     * @param rules the rules, in order of precedence
+     * @param roots the URIs of all mapped collections
+     * @throws IllegalArgumentException in case of invalid rules
+     */
+    public SyncFilter(List<SyncRule> rules, Collection<URI> roots) {
+        final List<URI> literalExclusions = new ArrayList<>();
+        for (int rc = 0; rc < rules.size(); rc++) {
+            final SyncRule rule = rules.get(rc);
+            final boolean include = (rule.include != null);
+            final String pattern = (include ? rule.include : rule.exclude);
+            if (pattern == null || pattern.isEmpty() || (include && rule.exclude != null)) {
+                throw new IllegalArgumentException(String.format("Invalid sync rule '%s'", rule));
+            }
+            for (URI mapped : roots) {
+                final String path = mapped.getPath();
+                final String base = (path.endsWith("/") ? path : path + "/");
+                final Rule compiled = compile(rc, include, base, pattern);
+                node(compiled.prefix).rules.add(compiled);
+                if (!include && compiled.collection && compiled.literal != null) {
+                    literalExclusions.add(mapped.resolve(compiled.literal));
+                }
+            }
+        }
+        for (URI excluded : literalExclusions) {
+            if (excludes(excluded)) {
+                excludedCollections.add(excluded);
+            }
+        }
+    }
+
+    /**
+     * A filter without any rules, including everything.
+     *
+     * @return the filter
+     */
+    public static SyncFilter none() {
+        return new SyncFilter(Collections.<SyncRule>emptyList(), Collections.<URI>emptyList());
+    }
+
+    /**
+     * Checks whether a collection or resource is excluded.
+     *
+     * @param uri the URI of a collection, ending in a slash, or of a resource
+     * @return <code>true</code> if the first rule matching the URI's path excludes it
+     */
+    public boolean excludes(URI uri) {
+        final String path = uri.getPath();
+        final boolean collection = path.endsWith("/");
+
+        Rule decisive = null;
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            for (Rule rule : node.rules) {
+                if (decisive != null && decisive.index < rule.index) {
+                    continue;
+                }
+                if (rule.collection == collection && rule.regex.matcher(path).matches()) {
+                    decisive = rule;
+                }
+            }
+            final int end = path.indexOf('/', start);
+            if (end < 0) {
+                break;
+            }
+            node = node.children.get(path.substring(start, end + 1));
+            start = end + 1;
+        }
+        return (decisive != null && !decisive.include);
+    }
+
+    /**
+     * The collections excluded by rules without wildcards, which can be skipped by server-side
+     * listings already.
+     *
+     * @return the URIs of the excluded collections
+     */
+    public Set<URI> excludedCollections() {
+        return Collections.unmodifiableSet(excludedCollections);
+    }
+
+    private Node node(String prefix) {
+        Node node = root;
+        int start = 0;
+        for (int end = prefix.indexOf('/'); end >= 0; end = prefix.indexOf('/', start)) {
+            node = node.children.computeIfAbsent(prefix.substring(start, end + 1), s -> new Node());
+            start = end + 1;
+        }
+        return node;
+    }
+
+    private static Rule compile(int index, boolean include, String base, String pattern) {
+        if (pattern.startsWith(REGEX_PREFIX)) {
+            final String regex = pattern.substring(REGEX_PREFIX.length());
+            try {
+                final Pattern compiled = Pattern.compile(Pattern.quote(base) + regex);
+                return new Rule(index, include, regex.endsWith("/"), compiled, base, null);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid sync rule '%s'", pattern), e
+                );
+            }
+        }
+
+        final boolean collection = pattern.endsWith("/");
+        final String relative = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+        final String glob = (relative.substring(0, relative.length() - (collection ? 1 : 0))
+                .contains("/") ? relative : "**/" + relative);
+
+        final StringBuilder regex = new StringBuilder(Pattern.quote(base));
+        int wildcard = -1;
+        for (int cc = 0; cc < glob.length(); cc++) {
+            final char c = glob.charAt(cc);
+            if ((c == '*' || c == '?') && wildcard < 0) {
+                wildcard = cc;
+            }
+            if (glob.startsWith("**/", cc)) {
+                regex.append("(?:.*/)?");
+                cc += 2;
+            } else if (glob.startsWith("**", cc)) {
+                regex.append(".*");
+                cc += 1;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        final String literal = base + (wildcard < 0 ? glob : glob.substring(0, wildcard));
+        return new Rule(
+                index, include, collection, Pattern.compile(regex.toString()),
+                literal.substring(0, literal.lastIndexOf('/') + 1),
+                wildcard < 0 ? literal : null
+        );
+    }
+
+    private static class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Rule> rules = new ArrayList<>();
+    }
+
+    private static class Rule {
+
+        private final int index;
+        private final boolean include;
+        private final boolean collection;
+        private final Pattern regex;
+        private final String prefix;
+        private final String literal;
+
+        private Rule(int index, boolean include, boolean collection, Pattern regex,
+                     String prefix, String literal) {
+            this.index = index;
+            this.include = include;
+            this.collection = collection;
+            this.regex = regex;
+            this.prefix = prefix;
+            this.literal = literal;
+        }
+    }
+}
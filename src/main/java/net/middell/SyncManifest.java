@@ -0,0 +1,318 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Persistent record of the state of synced resources as of the last sync.
+ *
+ * <p>For every synced resource, the manifest records the modification time and size of the
+ * resource in the database, as well as the size, modification time and content hash of the local
+ * file it has been written to. A resource whose recorded remote state matches the one currently
+ * reported by the database, and whose local file has not been touched since, can be skipped
+ * without opening it. Likewise, the manifest records the aggregated state of synced collection
+ * subtrees, so that unchanged subtrees can be skipped without listing them.</p>
+ *
+ * <p>Manifests are stored in a compact binary format. Each manifest carries a fingerprint of the
+ * sync configuration it has been created with; manifests with a different fingerprint are
+ * discarded on {@link #load(Path, byte[]) load}.</p>
+ *
+ * @see Synchronizer
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class SyncManifest {
+
+    private static final int MAGIC = 0x78734d46;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final byte[] fingerprint;
+    private final NavigableMap<URI, Entry> entries =
+            new ConcurrentSkipListMap<>(Comparator.comparing(URI::toString));
+    private final Set<URI> visited = ConcurrentHashMap.newKeySet();
+
+    private SyncManifest(Path file, byte[] fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Recorded state of a single resource.
+     */
+    public static class Entry {
+
+        private final long remoteModified;
+        private final long remoteSize;
+        private final long localModified;
+        private final long localSize;
+        private final byte[] hash;
+
+        /**
+         * Creates a manifest entry.
+         *
+         * @param remoteModified the modification time of the resource in the database
+         * @param remoteSize     the size of the resource as reported by the database
+         * @param localModified  the modification time of the local file
+         * @param localSize      the size of the local file
+         * @param hash           the digest of the local file's content, possibly empty
+         */
+        public Entry(long remoteModified, long remoteSize,
+                     long localModified, long localSize, byte[] hash) {
+            this.remoteModified = remoteModified;
+            this.remoteSize = remoteSize;
+            this.localModified = localModified;
+            this.localSize = localSize;
+            this.hash = hash;
+        }
+
+        /**
+         * The modification time of the resource in the database at the time of the last sync.
+         *
+         * @return a UNIX timestamp in milliseconds
+         */
+        public long remoteModified() {
+            return remoteModified;
+        }
+
+        /**
+         * The modification time of the local file at the time of the last sync.
+         *
+         * @return a UNIX timestamp in milliseconds
+         */
+        public long localModified() {
+            return localModified;
+        }
+
+        /**
+         * The size of the local file at the time of the last sync.
+         *
+         * @return the size in bytes
+         */
+        public long localSize() {
+            return localSize;
+        }
+
+        /**
+         * The digest of the local file's content at the time of the last sync.
+         *
+         * @return the digest, or an empty array if unknown
+         */
+        public byte[] hash() {
+            return hash;
+        }
+    }
+
+    /**
+     * Loads a manifest from the filesystem.
+     *
+     * <p>Missing or unreadable manifests, as well as manifests created with a different
+     * configuration fingerprint, result in an empty manifest.</p>
+     *
+     * @param file        the manifest file
+     * @param fingerprint a fingerprint of the current sync configuration
+     * @return the loaded manifest
+     */
+    public static SyncManifest load(Path file, byte[] fingerprint) {
+        final SyncManifest manifest = new SyncManifest(file, fingerprint);
+        if (file == null || !Files.isRegularFile(file)) {
+            return manifest;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return manifest;
+            }
+            if (!Arrays.equals(fingerprint, readBytes(in))) {
+                return manifest;
+            }
+            for (int ec = in.readInt(); ec > 0; ec--) {
+                final URI uri = URI.create(in.readUTF());
+                manifest.entries.put(uri, new Entry(
+                        in.readLong(), in.readLong(), in.readLong(), in.readLong(), readBytes(in)
+                ));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Creates an empty manifest, which is not persisted.
+     *
+     * @return a transient manifest
+     */
+    public static SyncManifest empty() {
+        return new SyncManifest(null, new byte[0]);
+    }
+
+    /**
+     * Checks whether a resource's local copy reflects its current state in the database.
+     *
+     * @param uri            the URI of the resource
+     * @param remoteModified the current modification time of the resource in the database
+     * @param remoteSize     the current size of the resource in the database
+     * @param target         the local file, the resource is synced to
+     * @return <code>true</code> if the resource has been synced to the local file before, and
+     * neither the resource nor the local file have been modified since
+     */
+    public boolean isCurrent(URI uri, long remoteModified, long remoteSize, File target) {
+        visited.add(uri);
+        final Entry entry = entries.get(uri);
+        return entry != null
+                && entry.remoteModified == remoteModified
+                && entry.remoteSize == remoteSize
+                && target.lastModified() == entry.localModified
+                && target.length() == entry.localSize;
+    }
+
+    /**
+     * Checks whether the recorded state of a collection subtree matches its current one.
+     *
+     * @param uri   the URI of the collection
+     * @param state the current state of the collection subtree, in the database and locally
+     * @return <code>true</code> if the subtree has been synced before, and neither its content in
+     * the database nor the local directory it has been synced to have been modified since
+     */
+    public boolean isCurrent(URI uri, Entry state) {
+        visited.add(uri);
+        final Entry entry = entries.get(uri);
+        return entry != null
+                && entry.remoteModified == state.remoteModified
+                && entry.remoteSize == state.remoteSize
+                && entry.localModified == state.localModified
+                && entry.localSize == state.localSize
+                && Arrays.equals(entry.hash, state.hash);
+    }
+
+    /**
+     * Retrieves the recorded state of a resource.
+     *
+     * @param uri the URI of the resource
+     * @return the recorded state or <code>null</code> if there is none
+     */
+    public Entry get(URI uri) {
+        return entries.get(uri);
+    }
+
+    /**
+     * Records the state of a resource after it has been synced.
+     *
+     * @param uri            the URI of the resource
+     * @param remoteModified the modification time of the resource in the database
+     * @param remoteSize     the size of the resource as reported by the database
+     * @param target         the local file, the resource has been synced to
+     * @param hash           the digest of the local file's content, possibly empty
+     */
+    public void update(URI uri, long remoteModified, long remoteSize, File target, byte[] hash) {
+        visited.add(uri);
+        entries.put(uri, new Entry(
+                remoteModified, remoteSize, target.lastModified(), target.length(), hash
+        ));
+    }
+
+    /**
+     * Records the state of a collection subtree after it has been synced.
+     *
+     * @param uri   the URI of the collection
+     * @param state the state of the collection subtree, in the database and locally
+     */
+    public void update(URI uri, Entry state) {
+        visited.add(uri);
+        entries.put(uri, state);
+    }
+
+    /**
+     * Marks all recorded resources in a collection subtree as visited, retaining their state
+     * even though they have not been checked during the current sync.
+     *
+     * @param collection the URI of the collection
+     */
+    public void retain(URI collection) {
+        final String prefix = collection.toString();
+        for (URI uri : entries.tailMap(collection, true).keySet()) {
+            if (!uri.toString().startsWith(prefix)) {
+                break;
+            }
+            visited.add(uri);
+        }
+    }
+
+    /**
+     * Persists the manifest, dropping entries of resources which have not been visited.
+     *
+     * <p>The manifest is written to a temporary file first, which then replaces a previously
+     * stored manifest.</p>
+     *
+     * @throws IOException in case of errors while writing the manifest
+     */
+    public void store() throws IOException {
+        if (file == null) {
+            return;
+        }
+        entries.keySet().retainAll(visited);
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeBytes(out, fingerprint);
+            out.writeInt(entries.size());
+            for (Map.Entry<URI, Entry> record : entries.entrySet()) {
+                final Entry entry = record.getValue();
+                out.writeUTF(record.getKey().toString());
+                out.writeLong(entry.remoteModified);
+                out.writeLong(entry.remoteSize);
+                out.writeLong(entry.localModified);
+                out.writeLong(entry.localSize);
+                writeBytes(out, entry.hash);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -17,35 +17,14 @@
 
 package net.middell;
 
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.maven.project.MavenProject;
-import org.apache.maven.settings.Server;
-import org.apache.maven.settings.Settings;
 
 import java.io.File;
-import java.io.IOException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Locale;
 import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Synchronizes the local filesystem with a set of collections and/or resources
@@ -77,138 +56,111 @@ import java.util.stream.Stream;
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
 @Mojo(name = "sync")
-public class SyncMojo extends AbstractMojo {
+public class SyncMojo extends AbstractSyncMojo {
 
     /**
-     * The id of the <code>&lt;server/&gt;</code> entry in the Maven settings which provides
-     * username and password credentials for accessing the eXist-db instance.
+     * The number of collections to be synced concurrently.
      *
-     * <p>Should this identifier not have been configured, this goal emits a warning and exits.</p>
+     * <p>Per default, collections are synced one after another. Higher values spread collection
+     * listing, resource retrieval and local writes across a bounded pool of worker threads,
+     * which pays off when syncing from remote instances with many small collections.</p>
      */
-    @Parameter
-    private String serverId;
+    @Parameter(defaultValue = "1")
+    private int syncThreads;
 
     /**
-     * An optional base URI of all collections/resources to be synchronized.
+     * Whether the listings of all mapped collection subtrees are retrieved upfront, with a single
+     * server-side query per mapping.
      *
-     * <p>All {@link #syncMappings mapped URIs} are resolved against this base in case
-     * it has been provided.</p>
+     * <p>Otherwise collections are listed one at a time while traversing them.</p>
      */
-    @Parameter
-    private String syncBase;
+    @Parameter(defaultValue = "true")
+    private boolean syncSubtreeListing;
 
     /**
-     * A list of mappings between eXist-db collection/resources, specified via URIs, and local
-     * filesystem paths.
+     * Whether collection subtrees, which have changed neither in the database nor locally since
+     * the last sync, are skipped without listing them.
      *
-     * <p>Relative filesystem paths are interpreted relative to a project's base directory.</p>
+     * <p>Changes are detected via a single server-side query per mapping, aggregating the
+     * names, sizes and modification times of all resources in every subtree. Pruning supersedes
+     * the upfront {@link #syncSubtreeListing listing} of whole mapped subtrees.</p>
      */
-    @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-    @Parameter
-    private List<SyncMapping> syncMappings;
+    @Parameter(defaultValue = "true")
+    private boolean syncPruning;
 
     /**
-     * An optional regular expression which is matched against eXist-db URIs and allows for the
-     * exclusion of resources otherwise synced.
+     * The number of resources listed per request when traversing collections page by page.
      *
-     * <p>Per default, descriptor files are excluded.</p>
+     * <p>Per default (0), every collection is listed as a whole. Paging bounds memory usage by
+     * the page size, e.g. for collections holding hundreds of thousands of resources: resources
+     * are listed and synced one page at a time, and local directories are streamed instead of
+     * being read into memory. Paging supersedes the upfront
+     * {@link #syncSubtreeListing listing} of whole mapped subtrees.</p>
      */
-    @Parameter(defaultValue = ".*?(repo)|(expath\\-pkg)\\.xml$")
-    private String syncExclusion;
+    @Parameter(defaultValue = "0")
+    private int syncPageSize;
 
-    @Parameter(defaultValue = "${project}", required = true, readonly = true)
-    private MavenProject project;
+    /**
+     * Whether resources modified in the database after their local copy are compared against the
+     * local copy by content hash before the local copy is replaced.
+     *
+     * <p>Local files with identical content are left untouched, apart from their modification
+     * time, avoiding needless writes e.g. after the application's package has been
+     * reinstalled.</p>
+     */
+    @Parameter(defaultValue = "true")
+    private boolean syncHashComparison;
+
+    /**
+     * How the content of mapped collections is fetched: <code>incremental</code>,
+     * <code>bulk</code> or <code>auto</code>.
+     *
+     * <p>Incremental syncs fetch changed resources one at a time. Bulk syncs export the binary
+     * resources of every mapped collection as a single archive, zipped on the server, which is
+     * downloaded in one stream and unpacked locally, before XML resources are fetched and stale
+     * files are deleted as usual. With <code>auto</code>, mapped collections whose local
+     * directories are missing or empty are exported in bulk.</p>
+     */
+    @Parameter(defaultValue = "incremental")
+    private String syncStrategy;
 
-    @Parameter(defaultValue = "${settings}", required = true, readonly = true)
-    private Settings settings;
+    /**
+     * The database collection in which archives of bulk exports are temporarily stored.
+     *
+     * <p>The collection has to exist and to be writable by the configured user.</p>
+     */
+    @Parameter(defaultValue = "/db/system/temp")
+    private String syncBulkCollection;
 
     @Override
     public final void execute() throws MojoExecutionException {
+        requireSingleServer("sync");
         try {
-            if (serverId == null || syncMappings == null) {
-                getLog().warn("No server and/or sync mappings defined.");
+            if (!isConfigured()) {
                 return;
             }
 
-            final ExistDatabase db = database();
-
-            Predicate<String> syncExclusionPredicate = null;
-            if (syncExclusion != null) {
-                syncExclusionPredicate = Pattern.compile(syncExclusion).asPredicate();
-            }
-
             final SortedMap<URI, File> mappings = initMappings();
-            final Path[] mappedPaths = mappings.values().stream().map(File::toPath)
-                    .toArray(Path[]::new);
-
-            while (!mappings.isEmpty()) {
-                final URI source = mappings.firstKey();
-                final File target = mappings.remove(source);
-
-                if (!target.isDirectory() && !target.mkdirs()) {
-                    throw new MojoExecutionException(
-                            String.format("Cannot create directory '%s'", target)
-                    );
-                }
-
-                @SuppressWarnings("ConstantConditions")
-                final Map<String, File> targetChildren = Stream.of(target.listFiles())
-                        .collect(Collectors.toMap(File::getName, Function.identity()));
-
-                try (ExistDatabase.Collection collection = db.collection(source)) {
-                    for (String name : collection.resources()) {
-                        final URI sourceUri = source.resolve(name);
-                        final File targetFile = Optional
-                                .ofNullable(targetChildren.remove(name))
-                                .orElseGet(() -> new File(target, name));
-
-                        if (syncExclusionPredicate != null) {
-                            if (syncExclusionPredicate.test(sourceUri.toString())) {
-                                getLog().info(String.format("Skipping '%s'", sourceUri));
-                                continue;
-                            }
-                        }
-
-                        try (ExistDatabase.Resource resource = db.resource(collection, name)) {
-                            final boolean needsUpdate = !targetFile.exists()
-                                    || targetFile.lastModified() < resource.lastModified();
-
-                            if (needsUpdate) {
-                                final Path targetPath = targetFile.toPath();
-                                switch (resource.type()) {
-                                    case BINARY:
-                                        Files.write(targetPath, resource.binaryContent());
-                                        break;
-                                    default:
-                                        Files.write(
-                                                targetPath,
-                                                Collections.singleton(resource.content()),
-                                                StandardCharsets.UTF_8
-                                        );
-                                        break;
-                                }
-                                getLog().info(String.format("[%s] -> [%s]", sourceUri, targetFile));
-                            }
-                        }
-                    }
-                    for (String name : collection.collections()) {
-                        mappings.put(
-                                source.resolve(name + "/"),
-                                Optional.ofNullable(targetChildren.remove(name))
-                                        .orElseGet(() -> new File(target, name))
-                        );
-                    }
-                    for (File file : targetChildren.values()) {
-                        final Path path = file.getCanonicalFile().toPath();
-                        if (Stream.of(mappedPaths).anyMatch(mp -> mp.startsWith(path))) {
-                            continue;
-                        }
-
-                        getLog().info(String.format("Deleting '%s'", file));
-                        deleteRecursively(file);
-                    }
-                }
+            final SyncManifest manifest = manifest();
+            try (ExistDatabase db = database()) {
+                final Synchronizer synchronizer = new Synchronizer(db, getLog());
+                synchronizer.setManifest(manifest);
+                synchronizer.setExclusion(exclusion());
+                synchronizer.setFilter(filter(mappings));
+                synchronizer.setThreads(syncThreads);
+                synchronizer.setSubtreeListing(syncSubtreeListing);
+                synchronizer.setPruning(syncPruning);
+                synchronizer.setPageSize(syncPageSize);
+                synchronizer.setHashComparison(syncHashComparison);
+                synchronizer.setFinalNewline(finalNewline());
+                synchronizer.setStrategy(
+                        Synchronizer.Strategy.valueOf(syncStrategy.toUpperCase(Locale.ROOT))
+                );
+                synchronizer.setBulkCollection(syncBulkCollection);
+                synchronizer.sync(mappings);
+                report(db.metrics(), "sync");
             }
+            manifest.store();
         } catch (Exception e) {
             throw new MojoExecutionException(
                     String.format("Error while syncing '%s'", syncBase),
@@ -216,67 +168,4 @@ public class SyncMojo extends AbstractMojo {
             );
         }
     }
-
-    private void deleteRecursively(File file) throws IOException {
-        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                    throws IOException {
-                if (!file.toFile().isDirectory()) {
-                    Files.delete(file);
-                }
-                return super.visitFile(file, attrs);
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
-                    throws IOException {
-                Files.delete(dir);
-                return super.postVisitDirectory(dir, exc);
-            }
-        });
-    }
-
-    private SortedMap<URI, File> initMappings() throws IOException {
-        final SortedMap<URI, File> syncMap = new TreeMap<>(
-                Comparator.<URI>naturalOrder().reversed()
-        );
-
-        final File projectBase = project.getBasedir().getCanonicalFile();
-        final String projectBasePath = projectBase.getPath();
-
-        final URI syncBaseUri = (syncBase == null ? null : ExistUri.create(syncBase));
-        for (SyncMapping mapping : syncMappings) {
-            URI sourceUri = ExistUri.create(mapping.source);
-            if (syncBaseUri != null) {
-                sourceUri = syncBaseUri.resolve(sourceUri);
-            }
-            final File targetFile = new File(projectBase, mapping.target).getCanonicalFile();
-            if (targetFile.toPath().startsWith(projectBasePath)) {
-                syncMap.put(sourceUri, targetFile);
-            } else {
-                getLog().warn(String.format("'%s' is not in project dir! Skipped.", targetFile));
-            }
-        }
-        return syncMap;
-    }
-
-    private ExistDatabase database() throws MojoExecutionException {
-        final Server server = Optional.ofNullable(settings.getServer(serverId))
-                .orElseThrow(() -> new MojoExecutionException(
-                        String.format("Server '%s' not found", serverId)
-                ));
-
-        return new ExistDatabase(
-                Optional.ofNullable(server.getUsername())
-                        .orElseThrow(() -> new MojoExecutionException(
-                                String.format("Server '%s' has no username defined", serverId)
-                        )),
-                Optional.ofNullable(server.getPassword())
-                        .orElseThrow(() -> new MojoExecutionException(
-                                String.format("Server '%s' has no password defined", serverId)
-                        ))
-        );
-    }
-
 }
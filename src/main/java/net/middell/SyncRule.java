@@ -0,0 +1,64 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * A rule including or excluding collections or resources from syncing.
+ *
+ * <p>Each rule either includes or excludes matching paths, which are given relative to the mapped
+ * collections. Paths are glob patterns, in which <code>*</code> matches within a path segment
+ * and <code>**</code> across segments, or regular expressions if prefixed with
+ * <code>regex:</code>. Patterns ending in a slash apply to collections, all others to resources.
+ * Glob patterns without a slash other than a trailing one match names at any depth.</p>
+ *
+ * <pre>
+ * &lt;syncRule&gt;
+ *   &lt;exclude&gt;data/cache/&lt;/exclude&gt;
+ * &lt;/syncRule&gt;
+ * &lt;syncRule&gt;
+ *   &lt;include&gt;resources/**&#47;*.css&lt;/include&gt;
+ * &lt;/syncRule&gt;
+ * &lt;syncRule&gt;
+ *   &lt;exclude&gt;regex:.*\.(tmp|bak)&lt;/exclude&gt;
+ * &lt;/syncRule&gt;
+ * </pre>
+ *
+ * @see SyncFilter
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class SyncRule {
+
+    /**
+     * A pattern of paths to be included.
+     */
+    @Parameter
+    public String include;
+
+    /**
+     * A pattern of paths to be excluded.
+     */
+    @Parameter
+    public String exclude;
+
+    @Override
+    public String toString() {
+        return (include == null ? "exclude:" + exclude : "include:" + include);
+    }
+}
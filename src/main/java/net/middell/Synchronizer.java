@@ -0,0 +1,1254 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.logging.Log;
+import org.xmldb.api.base.XMLDBException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Synchronizes a set of collections in an eXist-db instance with directories in the local
+ * filesystem.
+ *
+ * <p>Collections are traversed breadth-first, starting from a set of mapped roots. Each collection
+ * is synced on its own: its resources are fetched, newly found child collections are scheduled
+ * for traversal, and local files without a counterpart in the database are deleted.</p>
+ *
+ * <p>Resources are only fetched if they are missing locally or have been modified in the
+ * database after their local copy. Listings of whole collection subtrees, including resource
+ * metadata, are retrieved in bulk upfront, so that collections and resources only have to be
+ * opened when content is fetched. Resources recorded as unchanged in the
+ * {@link SyncManifest manifest} of the last sync are skipped altogether, as are whole collection
+ * subtrees whose server-side summary and local directory are unchanged since. Fetched content is
+ * compared against existing local files by content hash, so that files with identical content,
+ * e.g. after a package has been reinstalled, are not rewritten.</p>
+ *
+ * <p>Alternatively, mapped collections can be {@link #setStrategy(Strategy) exported in bulk},
+ * trading thousands of requests for a single server-side archive, e.g. for first-time
+ * checkouts.</p>
+ *
+ * <p>Collections and resources excluded by the configured {@link SyncFilter filter} are skipped;
+ * collections excluded by literal paths are not even listed. Local files and directories
+ * corresponding to excluded paths, as well as the directories of other mappings and their
+ * ancestors, are never deleted.</p>
+ *
+ * <p>Round trips, transferred bytes and the time spent per phase are recorded in the database's
+ * {@link Metrics metrics}; instead of logging every fetched resource, progress is logged
+ * periodically.</p>
+ *
+ * <p>With more than one thread, collections are synced concurrently on a bounded work-stealing
+ * pool. Every task opens its own {@link ExistDatabase.Collection collection handle}, so that no
+ * XML:DB collection is shared between threads.</p>
+ *
+ * @see SyncMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class Synchronizer {
+
+    /**
+     * The algorithm used for computing digests of synced content.
+     */
+    public static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /**
+     * Size in bytes up to which content compared against an existing local file is buffered in
+     * memory rather than in a temporary file.
+     */
+    private static final long COMPARISON_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = ExistDatabase.CHUNK_SIZE;
+
+    /**
+     * Zips the binary resources of a collection subtree on the server and stores the archive as
+     * a binary resource, yielding its path, or nothing if there are no binary resources.
+     */
+    private static final String EXPORT_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $archives external;",
+            "declare variable $name external;",
+            "declare function local:binaries($collection as xs:string) as xs:anyURI* {",
+            "  for $name in xmldb:get-child-resources($collection)",
+            "  let $path := concat($collection, \"/\", $name)",
+            "  where util:is-binary-doc($path)",
+            "  return xs:anyURI($path),",
+            "  for $child in xmldb:get-child-collections($collection)",
+            "  return local:binaries(concat($collection, \"/\", $child))",
+            "};",
+            "let $binaries := local:binaries($collection)",
+            "return if (empty($binaries)) then () else xmldb:store($archives, $name,",
+            "  compression:zip($binaries, true(), $collection), \"application/zip\")"
+    );
+
+    private static final String REMOVE_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "declare variable $collection external;",
+            "declare variable $name external;",
+            "xmldb:remove($collection, $name)"
+    );
+
+    /**
+     * Strategies for fetching the content of mapped collections.
+     */
+    public enum Strategy {
+
+        /**
+         * Resources are fetched one at a time, as far as they have changed.
+         */
+        INCREMENTAL,
+
+        /**
+         * Mapped collections are exported as a whole via a single archive, which is unpacked
+         * locally.
+         */
+        BULK,
+
+        /**
+         * Mapped collections whose local directories are missing or empty are exported in bulk,
+         * all others are synced incrementally.
+         */
+        AUTO
+    }
+
+    private final ExistDatabase db;
+    private final Log log;
+    private final Metrics metrics;
+
+    private SyncManifest manifest = SyncManifest.empty();
+    private Predicate<String> exclusion;
+    private SyncFilter filter = SyncFilter.none();
+    private int threads = 1;
+    private boolean subtreeListing = true;
+    private boolean pruning = true;
+    private boolean hashComparison = true;
+    private int pageSize;
+    private boolean keepUntracked;
+    private Strategy strategy = Strategy.INCREMENTAL;
+    private String bulkCollection = "/db/system/temp";
+    private byte[] finalNewline = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final Set<Path> protectedPaths = new HashSet<>();
+    private final Map<URI, ExistDatabase.Listing> listings = new ConcurrentHashMap<>();
+    private final Map<URI, ExistDatabase.Summary> summaries = new ConcurrentHashMap<>();
+    private final Map<Path, long[]> localStates = new ConcurrentHashMap<>();
+    private final Map<URI, Path> traversed = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a synchronizer.
+     *
+     * @param db  the database to sync from
+     * @param log log for reporting progress
+     */
+    public Synchronizer(ExistDatabase db, Log log) {
+        this.db = db;
+        this.log = log;
+        this.metrics = db.metrics();
+    }
+
+    /**
+     * Sets the state of synced resources as of the last sync, updated while syncing.
+     *
+     * @param manifest the manifest, per default an empty, transient one
+     */
+    public void setManifest(SyncManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Sets a predicate on resource URIs, excluding matching resources from the sync.
+     *
+     * @param exclusion the predicate or <code>null</code>, if no resource shall be excluded
+     */
+    public void setExclusion(Predicate<String> exclusion) {
+        this.exclusion = exclusion;
+    }
+
+    /**
+     * Sets the rules, determining which collections and resources are synced.
+     *
+     * <p>Excluded collections are neither listed nor traversed. Local files and directories
+     * corresponding to excluded resources and collections are left untouched.</p>
+     *
+     * @param filter the filter, per default one including everything
+     */
+    public void setFilter(SyncFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the number of collections to be synced concurrently.
+     *
+     * @param threads the number of worker threads, per default 1
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Determines whether the listings of whole collection subtrees are retrieved upfront, with a
+     * single query per mapped collection.
+     *
+     * <p>Otherwise each collection is listed on its own, when it is synced.</p>
+     *
+     * @param subtreeListing <code>true</code> per default
+     */
+    public void setSubtreeListing(boolean subtreeListing) {
+        this.subtreeListing = subtreeListing;
+    }
+
+    /**
+     * Determines whether collection subtrees, which have not changed since the last sync, neither
+     * in the database nor locally, are skipped.
+     *
+     * <p>Subtrees are compared via {@link ExistDatabase.Collection#summaries() summaries},
+     * retrieved with a single query per mapped collection. Changed collections are then listed
+     * one at a time, except for subtrees not recorded in the manifest, which are listed as a
+     * whole. Pruning supersedes the upfront {@link #setSubtreeListing(boolean) listing} of whole
+     * mapped subtrees.</p>
+     *
+     * @param pruning <code>true</code> per default
+     */
+    public void setPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    /**
+     * Determines whether fetched content is compared against existing local files by content
+     * hash, before the files are replaced.
+     *
+     * <p>Local files whose content matches the fetched one are left untouched, except for their
+     * modification time, which is set to the one of the resource. Digests of local files are
+     * taken from the manifest as long as the files' size and modification time match the
+     * recorded ones.</p>
+     *
+     * @param hashComparison <code>true</code> per default
+     */
+    public void setHashComparison(boolean hashComparison) {
+        this.hashComparison = hashComparison;
+    }
+
+    /**
+     * Sets the number of resources listed per request, traversing collections page by page.
+     *
+     * <p>In this mode, memory usage is bounded by the page size rather than the size of the
+     * largest collection: resources are listed and synced one page at a time, and local
+     * directories are streamed, with their files being looked up in the database in batches of
+     * the same size. It supersedes the upfront {@link #setSubtreeListing(boolean) listing} of
+     * whole subtrees, except for {@link #setStrategy(Strategy) bulk exports}.</p>
+     *
+     * @param pageSize the number of resources per page, or 0 to list every collection as a
+     *                 whole, the default
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(0, pageSize);
+    }
+
+    /**
+     * Determines whether local files are only deleted if they have been synced before and have
+     * not been modified since.
+     *
+     * <p>Files created or modified locally while a sync is running, e.g. while watching, have no
+     * counterpart in the database yet; with this option, they are kept instead of being deleted
+     * as stale. Only files recorded in the {@link #setManifest(SyncManifest) manifest} with
+     * their current size and modification time are deleted, and directories only as far as
+     * they are empty afterwards.</p>
+     *
+     * @param keepUntracked <code>false</code> per default
+     */
+    public void setKeepUntracked(boolean keepUntracked) {
+        this.keepUntracked = keepUntracked;
+    }
+
+    /**
+     * Sets the line separator appended to the serialized content of XML resources.
+     *
+     * @param finalNewline the separator, possibly empty; per default the platform's line
+     *                     separator
+     */
+    public void setFinalNewline(String finalNewline) {
+        this.finalNewline = finalNewline.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Determines how the content of mapped collections is fetched.
+     *
+     * <p>With a bulk export, the binary resources of a mapped collection are zipped by a single
+     * server-side query and stored as a temporary archive, which is then downloaded as one stream
+     * and unpacked entry by entry while it is being received. Afterwards, the collection is
+     * synced as usual, so that exclusions and the deletion of stale local files still apply,
+     * while the resources just unpacked are recognized as current without fetching them again.
+     * XML resources are not exported, as the server would zip them with its default
+     * serialization options instead of the configured ones; they are fetched one at a time by
+     * the subsequent sync. Unpacked files do not replace local files modified after their
+     * resource.</p>
+     *
+     * @param strategy the strategy, per default {@link Strategy#INCREMENTAL}
+     */
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Sets the database collection in which archives of bulk exports are temporarily stored.
+     *
+     * @param bulkCollection the absolute database path of an existing collection, per default
+     *                       <code>/db/system/temp</code>
+     */
+    public void setBulkCollection(String bulkCollection) {
+        this.bulkCollection = bulkCollection.replaceAll("/+$", "");
+    }
+
+    /**
+     * Syncs a set of mapped collections, including all of their descendants.
+     *
+     * @param mappings mapping of collection URIs to local directories
+     * @throws Exception in case of database or I/O errors while syncing
+     */
+    public void sync(SortedMap<URI, File> mappings) throws Exception {
+        sync(mappings, mappings.keySet());
+    }
+
+    /**
+     * Syncs some of a set of mapped collections, including all of their descendants.
+     *
+     * <p>Directories of all mappings are preserved, including those of mappings not synced.</p>
+     *
+     * @param mappings mapping of collection URIs to local directories
+     * @param roots    the URIs of the mapped collections to be synced
+     * @throws Exception in case of database or I/O errors while syncing
+     */
+    public void sync(SortedMap<URI, File> mappings, Set<URI> roots) throws Exception {
+        protectedPaths.clear();
+        for (File target : mappings.values()) {
+            for (Path path = target.toPath(); path != null; path = path.getParent()) {
+                if (!protectedPaths.add(path)) {
+                    break;
+                }
+            }
+        }
+        final SortedMap<URI, File> synced = new TreeMap<>(mappings.comparator());
+        synced.putAll(mappings);
+        synced.keySet().retainAll(roots);
+
+        listings.clear();
+        summaries.clear();
+        localStates.clear();
+        traversed.clear();
+        if (pruning) {
+            for (Map.Entry<URI, File> mapping : synced.entrySet()) {
+                final long start = metrics.start();
+                try (ExistDatabase.Collection collection = db.collection(mapping.getKey())) {
+                    summaries.putAll(collection.summaries(filter.excludedCollections()));
+                }
+                metrics.record("summarize", start, mapping.getKey());
+                localStates.putAll(localStates(mapping.getValue().toPath()));
+            }
+        } else if (subtreeListing && pageSize == 0) {
+            for (URI source : synced.keySet()) {
+                listSubtree(source);
+            }
+        }
+        for (Map.Entry<URI, File> mapping : synced.entrySet()) {
+            if (exportsInBulk(mapping.getValue())) {
+                export(mapping.getKey(), mapping.getValue(), mappings.keySet());
+            }
+        }
+        if (threads == 1) {
+            syncSequentially(synced);
+        } else {
+            syncConcurrently(synced);
+        }
+        if (pruning) {
+            localStates.clear();
+            for (File target : synced.values()) {
+                localStates.putAll(localStates(target.toPath()));
+            }
+            for (Map.Entry<URI, Path> collection : traversed.entrySet()) {
+                final SyncManifest.Entry state = state(collection.getKey(), collection.getValue());
+                if (state != null) {
+                    manifest.update(collection.getKey(), state);
+                }
+            }
+        }
+    }
+
+    private void syncSequentially(SortedMap<URI, File> mappings) throws Exception {
+        final SortedMap<URI, File> frontier = frontier();
+        frontier.putAll(mappings);
+        while (!frontier.isEmpty()) {
+            final URI source = frontier.firstKey();
+            frontier.putAll(sync(source, frontier.remove(source)));
+        }
+    }
+
+    private void syncConcurrently(SortedMap<URI, File> mappings) throws Exception {
+        final ExecutorService executor = Executors.newWorkStealingPool(threads);
+        try {
+            final CompletionService<SortedMap<URI, File>> tasks =
+                    new ExecutorCompletionService<>(executor);
+            final Set<Map.Entry<URI, File>> scheduled = ConcurrentHashMap.newKeySet();
+
+            int pending = 0;
+            for (Map.Entry<URI, File> mapping : mappings.entrySet()) {
+                if (scheduled.add(new AbstractMap.SimpleImmutableEntry<>(mapping))) {
+                    tasks.submit(() -> sync(mapping.getKey(), mapping.getValue()));
+                    pending++;
+                }
+            }
+            while (pending > 0) {
+                final SortedMap<URI, File> children;
+                try {
+                    children = tasks.take().get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    throw (cause instanceof Exception ? (Exception) cause : e);
+                }
+                pending--;
+
+                for (Map.Entry<URI, File> child : children.entrySet()) {
+                    if (scheduled.add(new AbstractMap.SimpleImmutableEntry<>(child))) {
+                        tasks.submit(() -> sync(child.getKey(), child.getValue()));
+                        pending++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Syncs a single collection, without descending into child collections.
+     *
+     * @param source the URI of the collection
+     * @param target the directory, the collection is mapped to
+     * @return the mapping of child collections to be synced subsequently
+     * @throws Exception in case of database or I/O errors while syncing
+     */
+    private SortedMap<URI, File> sync(URI source, File target) throws Exception {
+        if (pruning) {
+            final SyncManifest.Entry state = state(source, target.toPath());
+            if (state != null && manifest.isCurrent(source, state)) {
+                manifest.retain(source);
+                metrics.count("collectionsPruned", 1);
+                return frontier();
+            }
+        }
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException(String.format("Cannot create directory '%s'", target));
+        }
+
+        final SortedMap<URI, File> children = frontier();
+        if (pruning) {
+            if (pageSize == 0 && manifest.get(source) == null && summaries.containsKey(source)
+                    && !listings.containsKey(source)) {
+                listSubtree(source);
+            }
+            traversed.put(source, target.toPath());
+        }
+
+        try (LazyCollection collection = new LazyCollection(source)) {
+            ExistDatabase.Listing listing = listings.remove(source);
+            if (listing == null && pageSize > 0) {
+                syncPaged(source, target, collection, children);
+            } else {
+                if (listing == null) {
+                    final long start = metrics.start();
+                    listing = collection.get().listing();
+                    metrics.record("list", start, source);
+                }
+                sync(source, target, listing, collection, children);
+            }
+            metrics.count("collectionsSynced", 1);
+        }
+        return children;
+    }
+
+    /**
+     * Syncs a collection, whose listing is held in memory as a whole.
+     */
+    private void sync(URI source, File target, ExistDatabase.Listing listing,
+                      LazyCollection collection, SortedMap<URI, File> children)
+            throws Exception {
+        @SuppressWarnings("ConstantConditions")
+        final Map<String, File> targetChildren = Stream.of(target.listFiles())
+                .collect(Collectors.toMap(File::getName, Function.identity()));
+
+        for (ExistDatabase.Metadata metadata : listing.resources().values()) {
+            final String name = metadata.name();
+            final File targetFile = Optional
+                    .ofNullable(targetChildren.remove(name))
+                    .orElseGet(() -> new File(target, name));
+            sync(source, metadata, targetFile, collection);
+        }
+        for (String name : listing.collections()) {
+            final File childTarget = Optional.ofNullable(targetChildren.remove(name))
+                    .orElseGet(() -> new File(target, name));
+            schedule(source, name, childTarget, children);
+        }
+        for (File file : targetChildren.values()) {
+            deleteStale(source, file);
+        }
+    }
+
+    /**
+     * Syncs a collection page by page, so that neither its listing nor the contents of the
+     * local directory are held in memory as a whole.
+     *
+     * <p>Resources are listed in pages of {@link #setPageSize(int) page size}. Afterwards, the
+     * local directory is streamed, and files are looked up in the database in batches of the same
+     * size, deleting those without a counterpart.</p>
+     */
+    private void syncPaged(URI source, File target, LazyCollection lazy,
+                           SortedMap<URI, File> children) throws Exception {
+        final ExistDatabase.Collection collection = lazy.get();
+        for (int offset = 0; ; offset += pageSize) {
+            final long start = metrics.start();
+            final List<ExistDatabase.Metadata> page = collection.resources(offset, pageSize);
+            metrics.record("list", start, source);
+            metrics.count("pagesListed", 1);
+            for (ExistDatabase.Metadata metadata : page) {
+                sync(source, metadata, new File(target, metadata.name()), lazy);
+            }
+            if (page.size() < pageSize) {
+                break;
+            }
+        }
+
+        final Set<String> collections = new HashSet<>(Arrays.asList(collection.collections()));
+        for (String name : collections) {
+            schedule(source, name, new File(target, name), children);
+        }
+
+        final List<File> files = new ArrayList<>(pageSize);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(target.toPath())) {
+            for (Path entry : entries) {
+                final File file = entry.toFile();
+                if (Files.isDirectory(entry)) {
+                    if (!collections.contains(file.getName())) {
+                        deleteStale(source, file);
+                    }
+                    continue;
+                }
+                files.add(file);
+                if (files.size() == pageSize) {
+                    deleteMissing(source, collection, files);
+                }
+            }
+        }
+        deleteMissing(source, collection, files);
+    }
+
+    /**
+     * Deletes those of a batch of local files which have no counterpart in the database.
+     */
+    private void deleteMissing(URI source, ExistDatabase.Collection collection, List<File> files)
+            throws Exception {
+        if (files.isEmpty()) {
+            return;
+        }
+        final long start = metrics.start();
+        final Set<String> missing = collection.missing(
+                files.stream().map(File::getName).collect(Collectors.toList())
+        );
+        metrics.record("list", start, source);
+        for (File file : files) {
+            if (missing.contains(file.getName())) {
+                deleteStale(source, file);
+            }
+        }
+        files.clear();
+    }
+
+    /**
+     * Syncs a single resource.
+     */
+    private void sync(URI source, ExistDatabase.Metadata metadata, File targetFile,
+                      LazyCollection collection) throws Exception {
+        final URI sourceUri = source.resolve(metadata.name());
+        if (exclusion != null) {
+            if (exclusion.test(sourceUri.toString())) {
+                log.info(String.format("Skipping '%s'", sourceUri));
+                return;
+            }
+        }
+        if (filter.excludes(sourceUri)) {
+            log.debug(String.format("Skipping '%s'", sourceUri));
+            return;
+        }
+
+        final long lastModified = metadata.lastModified();
+        final long size = metadata.size();
+        metrics.count("resourcesChecked", 1);
+        if (manifest.isCurrent(sourceUri, lastModified, size, targetFile)) {
+            return;
+        }
+
+        final boolean needsUpdate = !targetFile.exists()
+                || targetFile.lastModified() < lastModified;
+
+        final SyncManifest.Entry recorded = manifest.get(sourceUri);
+        byte[] hash = (recorded != null
+                && recorded.localModified() == targetFile.lastModified()
+                && recorded.localSize() == targetFile.length()
+                ? recorded.hash() : new byte[0]);
+        if (needsUpdate) {
+            final byte[] localHash = (hashComparison && targetFile.isFile()
+                    ? localHash(sourceUri, targetFile) : null);
+            final long since = (localHash != null && recorded != null
+                    && Arrays.equals(localHash, recorded.hash())
+                    ? recorded.remoteModified() : -1);
+            final long start = metrics.start();
+            hash = fetch(collection.get(), metadata, targetFile.toPath(), localHash, since);
+            metrics.record("fetch", start, sourceUri);
+            if (hash == null) {
+                metrics.count("resourcesUnchanged", 1);
+                hash = localHash;
+                if (!targetFile.setLastModified(lastModified)) {
+                    throw new IOException(String.format(
+                            "Cannot set modification time of '%s'", targetFile
+                    ));
+                }
+                log.debug(String.format("[%s] == [%s]", sourceUri, targetFile));
+            } else {
+                metrics.count("resourcesFetched", 1);
+                log.debug(String.format("[%s] -> [%s]", sourceUri, targetFile));
+            }
+            metrics.progress(log, () -> "Syncing: " + metrics.summary());
+        }
+        manifest.update(sourceUri, lastModified, size, targetFile, hash);
+    }
+
+    /**
+     * Schedules a child collection for traversal, unless it is excluded.
+     */
+    private void schedule(URI source, String name, File childTarget,
+                          SortedMap<URI, File> children) {
+        final URI childUri = source.resolve(name + "/");
+        if (filter.excludes(childUri)) {
+            log.debug(String.format("Skipping '%s'", childUri));
+            return;
+        }
+        children.put(childUri, childTarget);
+    }
+
+    /**
+     * Deletes a local file or directory without a counterpart in the database, unless it is
+     * protected or excluded.
+     */
+    private void deleteStale(URI source, File file) throws Exception {
+        final Path path = file.getCanonicalFile().toPath();
+        if (protectedPaths.contains(path)) {
+            return;
+        }
+        if (filter.excludes(uri(source, file))) {
+            return;
+        }
+
+        if (keepUntracked) {
+            deleteTracked(uri(source, file), file);
+            return;
+        }
+
+        log.info(String.format("Deleting '%s'", file));
+        final long start = metrics.start();
+        deleteRecursively(file);
+        metrics.record("delete", start, file);
+        metrics.count("filesDeleted", 1);
+    }
+
+    /**
+     * Deletes a local file or the files in a directory, as far as they are recorded in the
+     * manifest and unmodified since, and the directory, as far as it is empty afterwards.
+     */
+    private void deleteTracked(URI uri, File file) throws Exception {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTracked(uri(uri, child), child);
+            }
+            final String[] remaining = file.list();
+            if (remaining != null && remaining.length == 0) {
+                Files.delete(file.toPath());
+            }
+            return;
+        }
+        final SyncManifest.Entry entry = manifest.get(uri);
+        if (entry == null
+                || entry.localModified() != file.lastModified()
+                || entry.localSize() != file.length()) {
+            log.info(String.format("Keeping '%s', which has been changed locally", file));
+            metrics.count("filesKept", 1);
+            return;
+        }
+        log.info(String.format("Deleting '%s'", file));
+        final long start = metrics.start();
+        Files.deleteIfExists(file.toPath());
+        metrics.record("delete", start, file);
+        metrics.count("filesDeleted", 1);
+    }
+
+    private boolean exportsInBulk(File target) {
+        switch (strategy) {
+            case BULK:
+                return true;
+            case AUTO:
+                final String[] contents = target.list();
+                return (contents == null || contents.length == 0);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Exports a mapped collection subtree via a server-side archive, unpacking it into the
+     * mapped directory.
+     *
+     * <p>The archive is streamed through a pipe, filled by a download running concurrently.
+     * Unpacked resources are recorded in the manifest; entries of resources which are excluded,
+     * belong to other mappings or are not part of the collection's listing are skipped.</p>
+     */
+    private void export(URI root, File target, Set<URI> mapped)
+            throws Exception {
+        if (!listings.containsKey(root)) {
+            listSubtree(root);
+        }
+        final String rootPath = root.getPath();
+        final URI archives = root.resolve(
+                rootPath.substring(0, Math.max(0, rootPath.indexOf("/db/")))
+                        + bulkCollection + "/"
+        );
+        final String name = "existdb-sync-" + UUID.randomUUID() + ".zip";
+
+        long start = metrics.start();
+        final String archive;
+        try (ExistDatabase.Collection collection = db.collection(root)) {
+            final Map<String, Object> variables = new HashMap<>();
+            variables.put("archives", bulkCollection);
+            variables.put("name", name);
+            archive = collection.query(EXPORT_QUERY, variables);
+        }
+        metrics.record("export", start, root);
+        if (archive.isEmpty()) {
+            return;
+        }
+
+        final ExecutorService download = Executors.newSingleThreadExecutor();
+        try {
+            start = metrics.start();
+            final PipedInputStream pipe = new PipedInputStream(CHUNK_SIZE);
+            final OutputStream sink = new FilterOutputStream(new PipedOutputStream(pipe)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    metrics.count("bytesFetched", len);
+                }
+            };
+            final Future<Boolean> fetched = download.submit(() -> {
+                try (OutputStream out = sink;
+                     ExistDatabase.Collection collection = db.collection(archives)) {
+                    return collection.fetch(name, ExistDatabase.ResourceType.BINARY, -1, out);
+                }
+            });
+            final Map<URI, Boolean> excluded = new HashMap<>();
+            try (ZipInputStream zip = new ZipInputStream(pipe)) {
+                for (ZipEntry entry = zip.getNextEntry(); entry != null;
+                     entry = zip.getNextEntry()) {
+                    if (!entry.isDirectory()) {
+                        unpack(root, target.toPath(), mapped, excluded, entry.getName(), zip);
+                    }
+                }
+                final byte[] buf = new byte[CHUNK_SIZE];
+                while (pipe.read(buf) >= 0) {
+                    continue;
+                }
+            }
+            try {
+                fetched.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                throw (cause instanceof Exception ? (Exception) cause : e);
+            }
+            metrics.record("unpack", start, root);
+        } finally {
+            // the download fails on the closed pipe, if it has not completed; await it before
+            // removing the archive it reads from
+            download.shutdownNow();
+            download.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            try (ExistDatabase.Collection collection = db.collection(archives)) {
+                collection.query(REMOVE_QUERY, Collections.singletonMap("name", name));
+            }
+        }
+    }
+
+    private void unpack(URI root, Path target, Set<URI> mapped,
+                        Map<URI, Boolean> excluded, String entry, InputStream content)
+            throws Exception {
+        final String relative = entry.replaceFirst("^/+", "");
+        final int separator = relative.lastIndexOf('/');
+        final String name = relative.substring(separator + 1);
+        final URI collectionUri;
+        try {
+            collectionUri = root.resolve(relative.substring(0, separator + 1));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        for (URI other : mapped) {
+            if (other.toString().length() > root.toString().length()
+                    && collectionUri.toString().startsWith(other.toString())) {
+                return;
+            }
+        }
+        final ExistDatabase.Listing listing = listings.get(collectionUri);
+        final ExistDatabase.Metadata metadata = (listing == null
+                ? null : listing.resources().get(name));
+        if (metadata == null || excludes(root, collectionUri, excluded)) {
+            return;
+        }
+        final URI uri = collectionUri.resolve(metadata.name());
+        if ((exclusion != null && exclusion.test(uri.toString())) || filter.excludes(uri)) {
+            return;
+        }
+        final Path file = target.resolve(relative.replace('/', File.separatorChar)).normalize();
+        final File targetFile = file.toFile();
+        if (!file.startsWith(target)
+                || (targetFile.exists() && targetFile.lastModified() >= metadata.lastModified())) {
+            return;
+        }
+
+        Files.createDirectories(file.getParent());
+        final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        final Path tmp = temporary(file);
+        try {
+            try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp), CHUNK_SIZE), digest)) {
+                final byte[] buf = new byte[CHUNK_SIZE];
+                for (int read = content.read(buf); read >= 0; read = content.read(buf)) {
+                    out.write(buf, 0, read);
+                }
+            }
+            final byte[] hash = digest.digest();
+            if (hashComparison && targetFile.isFile()
+                    && Arrays.equals(hash, localHash(uri, targetFile))) {
+                metrics.count("resourcesUnchanged", 1);
+                if (!targetFile.setLastModified(metadata.lastModified())) {
+                    throw new IOException(String.format(
+                            "Cannot set modification time of '%s'", targetFile
+                    ));
+                }
+            } else {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                metrics.count("resourcesFetched", 1);
+            }
+            metrics.count("resourcesUnpacked", 1);
+            manifest.update(uri, metadata.lastModified(), metadata.size(), targetFile, hash);
+            metrics.progress(log, () -> "Unpacking: " + metrics.summary());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Checks whether a collection or any of its ancestors below a mapped root is excluded.
+     */
+    private boolean excludes(URI root, URI collection, Map<URI, Boolean> excluded) {
+        if (collection.equals(root) || !collection.toString().startsWith(root.toString())) {
+            return false;
+        }
+        Boolean result = excluded.get(collection);
+        if (result == null) {
+            result = excludes(root, collection.resolve(".."), excluded)
+                    || filter.excludes(collection);
+            excluded.put(collection, result);
+        }
+        return result;
+    }
+
+    private void listSubtree(URI source) throws Exception {
+        final long start = metrics.start();
+        try (ExistDatabase.Collection collection = db.collection(source)) {
+            listings.putAll(collection.subtree(filter.excludedCollections()));
+        }
+        metrics.record("list", start, source);
+    }
+
+    /**
+     * Computes the digest of a local file's content.
+     *
+     * @param file the file
+     * @return the digest, computed with the {@link #DIGEST_ALGORITHM digest algorithm} used for
+     * synced content
+     * @throws IOException in case of errors while reading the file
+     */
+    public static byte[] digest(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            final byte[] buf = new byte[CHUNK_SIZE];
+            for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+                digest.update(buf, 0, read);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Combines the summary of a collection subtree with the state of the local directory it is
+     * synced to.
+     *
+     * @return the combined state or <code>null</code> if either is unknown
+     */
+    private SyncManifest.Entry state(URI collection, Path target) {
+        final ExistDatabase.Summary summary = summaries.get(collection);
+        final long[] local = localStates.get(target);
+        if (summary == null || local == null) {
+            return null;
+        }
+        return new SyncManifest.Entry(
+                summary.lastModified(), summary.resources(), local[0], local[1],
+                summary.structure().getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * Aggregates the latest modification time and the number of entries of every directory's
+     * subtree in a single walk.
+     */
+    private static Map<Path, long[]> localStates(Path root) throws IOException {
+        final Map<Path, long[]> states = new HashMap<>();
+        if (!Files.isDirectory(root)) {
+            return states;
+        }
+        final Deque<long[]> stack = new ArrayDeque<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                stack.push(new long[] { attrs.lastModifiedTime().toMillis(), 0 });
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                final long[] state = stack.peek();
+                state[0] = Math.max(state[0], attrs.lastModifiedTime().toMillis());
+                state[1]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                final long[] state = stack.pop();
+                states.put(dir, state);
+                final long[] parent = stack.peek();
+                if (parent != null) {
+                    parent[0] = Math.max(parent[0], state[0]);
+                    parent[1] += state[1] + 1;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return states;
+    }
+
+    /**
+     * Fetches a resource's content into a local file.
+     *
+     * <p>If the local file exists, the content is buffered and digested while being fetched;
+     * only if its digest differs from the local one, the buffered content replaces the local
+     * file. Content is buffered in memory up to {@link #COMPARISON_BUFFER_SIZE} bytes and
+     * spilled to a temporary file once it grows beyond. Fetching can be made conditional on the
+     * resource having been modified since the local file's content has been synced.</p>
+     *
+     * <p>Otherwise the content is fetched into a temporary file next to the local one, which
+     * replaces it once the content has been fetched completely. Failed fetches therefore leave
+     * an existing local file untouched.</p>
+     *
+     * @param localHash the digest of the local file's content, or <code>null</code> if the file
+     *                  is to be written unconditionally
+     * @param since     the modification time of the resource, whose content the local file
+     *                  holds, or -1 if unknown
+     * @return the digest of the written content, or <code>null</code> if the local file's
+     * content is identical or the resource has not been modified
+     */
+    private byte[] fetch(ExistDatabase.Collection collection, ExistDatabase.Metadata metadata,
+                         Path target, byte[] localHash, long since) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        if (localHash == null) {
+            final Path tmp = temporary(target);
+            try {
+                try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tmp), CHUNK_SIZE), digest)) {
+                    transfer(collection, metadata, -1, out);
+                }
+                metrics.count("bytesFetched", Files.size(tmp));
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return digest.digest();
+        }
+
+        final ComparisonBuffer buf = new ComparisonBuffer(target, metadata.size());
+        try {
+            try (OutputStream out = new DigestOutputStream(buf, digest)) {
+                if (!transfer(collection, metadata, since, out)) {
+                    return null;
+                }
+            }
+            metrics.count("bytesFetched", buf.size());
+            final byte[] hash = digest.digest();
+            if (Arrays.equals(hash, localHash)) {
+                return null;
+            }
+            final long start = metrics.start();
+            buf.moveTo();
+            metrics.record("write", start, target);
+            return hash;
+        } finally {
+            buf.discard();
+        }
+    }
+
+    /**
+     * Streams a resource's content, terminating XML content with the configured line
+     * separator.
+     */
+    private boolean transfer(ExistDatabase.Collection collection,
+                             ExistDatabase.Metadata metadata, long since,
+                             OutputStream out) throws Exception {
+        if (!collection.fetch(metadata.name(), metadata.type(), since, out)) {
+            return false;
+        }
+        if (metadata.type() == ExistDatabase.ResourceType.XML) {
+            out.write(finalNewline);
+        }
+        return true;
+    }
+
+    /**
+     * Determines the digest of a local file's content, as recorded in the manifest if the file
+     * has not been modified since, or computed otherwise.
+     */
+    private byte[] localHash(URI uri, File file) throws IOException {
+        final SyncManifest.Entry synced = manifest.get(uri);
+        if (synced != null && synced.hash().length > 0
+                && synced.localModified() == file.lastModified()
+                && synced.localSize() == file.length()) {
+            return synced.hash();
+        }
+        return digest(file.toPath());
+    }
+
+    /**
+     * Determines the URI a local file or directory would be synced from.
+     */
+    private static URI uri(URI collection, File file) throws URISyntaxException {
+        final String path = "./" + file.getName() + (file.isDirectory() ? "/" : "");
+        return collection.resolve(new URI(null, null, path, null));
+    }
+
+    /**
+     * The temporary file, content to be written to a local file is fetched into beforehand.
+     *
+     * <p>Unlike files created via <code>Files.createTempFile()</code>, it is created with
+     * default permissions, which the local file then keeps.</p>
+     */
+    private static Path temporary(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".existdb.tmp");
+    }
+
+    /**
+     * Buffers fetched content to be compared against an existing local file, in memory up to
+     * {@link #COMPARISON_BUFFER_SIZE} bytes and in a temporary file beyond.
+     *
+     * <p>The size reported by the database only serves as a hint for the initial capacity, as
+     * it is merely an estimate for XML resources.</p>
+     */
+    private static class ComparisonBuffer extends OutputStream {
+
+        private final Path target;
+        private ByteArrayOutputStream memory;
+        private Path file;
+        private OutputStream fileOut;
+        private long size;
+
+        private ComparisonBuffer(Path target, long sizeHint) {
+            this.target = target;
+            this.memory = new ByteArrayOutputStream(
+                    (int) Math.max(32, Math.min(sizeHint, COMPARISON_BUFFER_SIZE))
+            );
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && size + len > COMPARISON_BUFFER_SIZE) {
+                file = temporary(target);
+                fileOut = new BufferedOutputStream(Files.newOutputStream(file), CHUNK_SIZE);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        private long size() {
+            return size;
+        }
+
+        private void moveTo() throws IOException {
+            if (file == null) {
+                file = temporary(target);
+                Files.write(file, memory.toByteArray());
+            }
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void discard() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * A collection handle, opened when it is first needed.
+     */
+    private class LazyCollection implements AutoCloseable {
+
+        private final URI uri;
+        private ExistDatabase.Collection collection;
+
+        private LazyCollection(URI uri) {
+            this.uri = uri;
+        }
+
+        private ExistDatabase.Collection get() throws XMLDBException {
+            if (collection == null) {
+                collection = db.collection(uri);
+            }
+            return collection;
+        }
+
+        @Override
+        public void close() throws XMLDBException {
+            if (collection != null) {
+                collection.close();
+            }
+        }
+    }
+
+    private static SortedMap<URI, File> frontier() {
+        return new TreeMap<>(Comparator.<URI>naturalOrder().reversed());
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                if (!file.toFile().isDirectory()) {
+                    Files.delete(file);
+                }
+                return super.visitFile(file, attrs);
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                Files.delete(dir);
+                return super.postVisitDirectory(dir, exc);
+            }
+        });
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.logging.Log;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Uploads local changes in a set of directories into mapped collections of an eXist-db instance.
+ *
+ * <p>This is the reverse of {@link Synchronizer}: mapped directories are walked, and every file
+ * is compared against the metadata of its counterpart in the database, retrieved upfront via a
+ * single {@link ExistDatabase.Collection#subtree() subtree listing} per mapping. A file is
+ * uploaded if there is no counterpart, or if it has been modified after its counterpart. Files
+ * whose counterpart has not changed since the last sync are compared by content hash against the
+ * {@link SyncManifest manifest}, so that merely touched files are not uploaded again.</p>
+ *
+ * <p>Changed files are uploaded in batches per collection, optionally on a bounded pool of
+ * worker threads. A batch shares one collection handle and is uploaded by one worker, but each
+ * file is still stored with a request of its own. File contents are streamed from disk and sent
+ * in chunks. Uploaded resources are stamped with the modification time of their local file,
+ * unless they are uploaded via a {@link ContentTransport transport} which does not allow for it.
+ * The modification times assigned by the database in that case, as well as the sizes the
+ * database reports for XML resources, are retrieved via a single listing per batch and recorded
+ * in the manifest, so that a subsequent sync recognizes the uploaded resources as current.
+ * Resources without a local counterpart are left untouched.</p>
+ *
+ * @see PushMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class Uploader {
+
+    private final ExistDatabase db;
+    private final Log log;
+    private final Metrics metrics;
+
+    private SyncManifest manifest = SyncManifest.empty();
+    private Predicate<String> exclusion;
+    private SyncFilter filter = SyncFilter.none();
+    private int threads = 1;
+    private int batchSize = 100;
+    private Map<Path, byte[]> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an uploader.
+     *
+     * @param db  the database to upload to
+     * @param log log for reporting progress
+     */
+    public Uploader(ExistDatabase db, Log log) {
+        this.db = db;
+        this.log = log;
+        this.metrics = db.metrics();
+    }
+
+    /**
+     * Sets the state of synced resources as of the last sync, updated while uploading.
+     *
+     * @param manifest the manifest, per default an empty, transient one
+     */
+    public void setManifest(SyncManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Sets a predicate on resource URIs, excluding matching resources from the upload.
+     *
+     * @param exclusion the predicate or <code>null</code>, if no resource shall be excluded
+     */
+    public void setExclusion(Predicate<String> exclusion) {
+        this.exclusion = exclusion;
+    }
+
+    /**
+     * Sets the rules, determining which collections and resources are uploaded.
+     *
+     * <p>Directories mapped to excluded collections are not walked at all.</p>
+     *
+     * @param filter the filter, per default one including everything
+     */
+    public void setFilter(SyncFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the number of batches to be uploaded concurrently.
+     *
+     * @param threads the number of worker threads, per default 1
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the maximum number of files of a collection uploaded as one batch, i.e. via one
+     * collection handle and by one worker thread.
+     *
+     * <p>Batching saves opening a collection handle per file and listing the collection after
+     * every upload; it does not reduce the number of requests storing files.</p>
+     *
+     * @param batchSize the batch size, per default 100
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets a cache of file digests, so that uploaders pushing the same files to several
+     * databases compute each digest only once.
+     *
+     * @param digests a thread-safe map of files to their digests, per default a private one
+     */
+    public void setDigests(Map<Path, byte[]> digests) {
+        this.digests = digests;
+    }
+
+    /**
+     * Uploads changed files from a set of mapped directories, including all of their
+     * subdirectories.
+     *
+     * @param mappings mapping of collection URIs to local directories
+     * @throws Exception in case of database or I/O errors while uploading
+     */
+    public void push(SortedMap<URI, File> mappings) throws Exception {
+        push(mappings, mappings.keySet());
+    }
+
+    /**
+     * Uploads changed files from some of a set of mapped directories, including all of their
+     * subdirectories.
+     *
+     * <p>Directories of all mappings are excluded from the walks of enclosing mapped
+     * directories, including those of mappings not pushed.</p>
+     *
+     * @param mappings mapping of collection URIs to local directories
+     * @param roots    the URIs of the mapped collections to be pushed
+     * @throws Exception in case of database or I/O errors while uploading
+     */
+    public void push(SortedMap<URI, File> mappings, Set<URI> roots) throws Exception {
+        final Set<Path> mappedPaths = mappings.values().stream()
+                .map(File::toPath)
+                .collect(Collectors.toSet());
+
+        final List<Batch> batches = new ArrayList<>();
+        for (Map.Entry<URI, File> mapping : mappings.entrySet()) {
+            if (!roots.contains(mapping.getKey())) {
+                continue;
+            }
+            manifest.retain(mapping.getKey());
+            plan(mapping.getKey(), mapping.getValue().toPath(), mappedPaths, batches);
+        }
+
+        if (threads == 1) {
+            for (Batch batch : batches) {
+                upload(batch);
+            }
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Void>> tasks = new ArrayList<>(batches.size());
+            for (Batch batch : batches) {
+                tasks.add(() -> {
+                    upload(batch);
+                    return null;
+                });
+            }
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    throw (cause instanceof Exception ? (Exception) cause : e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void plan(URI root, Path dir, Set<Path> mappedPaths, List<Batch> batches)
+            throws Exception {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        final Map<URI, ExistDatabase.Listing> listings;
+        final long start = metrics.start();
+        try (ExistDatabase.Collection collection = db.createCollection(root)) {
+            listings = collection.subtree(filter.excludedCollections());
+        }
+        metrics.record("list", start, root);
+
+        final Map<URI, List<Upload>> uploads = new LinkedHashMap<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) {
+                if (subDir.equals(dir)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                final boolean skipped = mappedPaths.contains(subDir)
+                        || filter.excludes(collection(subDir));
+                return (skipped ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE);
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                final URI collection = collection(file.getParent());
+                final String name = file.getFileName().toString();
+                final URI uri = collection.resolve(name);
+
+                if (exclusion != null && exclusion.test(uri.toString())) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (filter.excludes(uri)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                final ExistDatabase.Listing listing = listings.get(collection);
+                final ExistDatabase.Metadata remote = (listing == null
+                        ? null : listing.resources().get(name));
+
+                metrics.count("filesChecked", 1);
+                final Upload upload = changed(uri, file, attrs, remote);
+                if (upload != null) {
+                    uploads.computeIfAbsent(collection, c -> new ArrayList<>()).add(upload);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private URI collection(Path directory) {
+                final String path = dir.relativize(directory).toString();
+                return (path.isEmpty() ? root : root.resolve(
+                        path.replace(File.separatorChar, '/') + "/"
+                ));
+            }
+        });
+
+        for (Map.Entry<URI, List<Upload>> collectionUploads : uploads.entrySet()) {
+            final URI collection = collectionUploads.getKey();
+            final List<Upload> pending = collectionUploads.getValue();
+            for (int bc = 0; bc < pending.size(); bc += batchSize) {
+                batches.add(new Batch(
+                        collection,
+                        listings.containsKey(collection),
+                        pending.subList(bc, Math.min(pending.size(), bc + batchSize))
+                ));
+            }
+        }
+    }
+
+    private Upload changed(URI uri, Path file, BasicFileAttributes attrs,
+                           ExistDatabase.Metadata remote) throws IOException {
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        if (remote == null) {
+            return new Upload(uri, file, type(file), mimeType(file), null);
+        }
+
+        final SyncManifest.Entry synced = manifest.get(uri);
+        if (synced != null && synced.remoteModified() == remote.lastModified()
+                && synced.hash().length > 0) {
+            if (synced.localModified() == lastModified && synced.localSize() == attrs.size()) {
+                return null;
+            }
+            final byte[] hash = digest(file);
+            if (Arrays.equals(hash, synced.hash())) {
+                return null;
+            }
+            return new Upload(uri, file, remote.type(), null, hash);
+        }
+
+        if (lastModified <= remote.lastModified()) {
+            return null;
+        }
+        return new Upload(uri, file, remote.type(), null, null);
+    }
+
+    private byte[] digest(Path file) throws IOException {
+        byte[] digest = digests.get(file);
+        if (digest == null) {
+            digest = Synchronizer.digest(file);
+            digests.put(file, digest);
+        }
+        return digest;
+    }
+
+    private void upload(Batch batch) throws Exception {
+        try (ExistDatabase.Collection collection = (batch.exists
+                ? db.collection(batch.collection)
+                : db.createCollection(batch.collection))) {
+            final Map<Upload, byte[]> unlisted = new LinkedHashMap<>();
+            for (Upload upload : batch.uploads) {
+                final File file = upload.file.toFile();
+                final byte[] hash = (upload.hash == null
+                        ? digest(upload.file) : upload.hash);
+                final long lastModified = file.lastModified();
+
+                final long start = metrics.start();
+                final long remoteModified = collection.store(
+                        upload.file.getFileName().toString(),
+                        file,
+                        upload.type,
+                        upload.mimeType,
+                        lastModified
+                );
+                metrics.record("upload", start, upload.uri);
+                metrics.count("filesUploaded", 1);
+                metrics.count("bytesUploaded", file.length());
+
+                if (remoteModified < 0 || upload.type != ExistDatabase.ResourceType.BINARY) {
+                    // the size of XML resources is known to the database only
+                    unlisted.put(upload, hash);
+                } else {
+                    manifest.update(upload.uri, remoteModified, file.length(), file, hash);
+                }
+                log.debug(String.format("[%s] -> [%s]", file, upload.uri));
+                metrics.progress(log, () -> "Pushing: " + metrics.summary());
+            }
+            if (!unlisted.isEmpty()) {
+                final Map<String, ExistDatabase.Metadata> stored =
+                        collection.listing().resources();
+                for (Map.Entry<Upload, byte[]> upload : unlisted.entrySet()) {
+                    final Path file = upload.getKey().file;
+                    final ExistDatabase.Metadata remote =
+                            stored.get(file.getFileName().toString());
+                    if (remote != null) {
+                        manifest.update(upload.getKey().uri, remote.lastModified(),
+                                remote.size(), file.toFile(), upload.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static ExistDatabase.ResourceType type(Path file) {
+        final MimeType mimeType = MimeTable.getInstance()
+                .getContentTypeFor(file.getFileName().toString());
+        return (mimeType != null && mimeType.isXMLType()
+                ? ExistDatabase.ResourceType.XML : ExistDatabase.ResourceType.BINARY);
+    }
+
+    private static String mimeType(Path file) {
+        final MimeType mimeType = MimeTable.getInstance()
+                .getContentTypeFor(file.getFileName().toString());
+        return (mimeType == null ? null : mimeType.getName());
+    }
+
+    private static class Upload {
+
+        private final URI uri;
+        private final Path file;
+        private final ExistDatabase.ResourceType type;
+        private final String mimeType;
+        private final byte[] hash;
+
+        private Upload(URI uri, Path file, ExistDatabase.ResourceType type, String mimeType,
+                       byte[] hash) {
+            this.uri = uri;
+            this.file = file;
+            this.type = type;
+            this.mimeType = mimeType;
+            this.hash = hash;
+        }
+    }
+
+    private static class Batch {
+
+        private final URI collection;
+        private final boolean exists;
+        private final List<Upload> uploads;
+
+        private Batch(URI collection, boolean exists, List<Upload> uploads) {
+            this.collection = collection;
+            this.exists = exists;
+            this.uploads = Collections.unmodifiableList(uploads);
+        }
+    }
+}
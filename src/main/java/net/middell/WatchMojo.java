@@ -0,0 +1,115 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.net.URI;
+import java.util.SortedMap;
+
+/**
+ * Continuously syncs resources between an eXist-db instance and the local filesystem, in both
+ * directions.
+ *
+ * <p>This goal shares its configuration with the {@link SyncMojo sync goal}. It runs until it is
+ * interrupted, keeping a single database session open: after an initial sync, local edits are
+ * uploaded as with the {@link PushMojo push goal}, while edits made in the database, e.g. via
+ * eXide, are synced into the mapped directories, usually within a second.</p>
+ *
+ * @see Watcher
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@Mojo(name = "watch")
+public class WatchMojo extends AbstractSyncMojo {
+
+    /**
+     * The interval in milliseconds in which mapped collections are polled for changes.
+     */
+    @Parameter(defaultValue = "1000")
+    private long watchPollInterval;
+
+    /**
+     * The interval in milliseconds in which the subtrees of mapped collections are scanned.
+     *
+     * <p>Polling only looks up XML documents modified in the meantime, which the database does
+     * without walking the subtrees. Modified binary resources, e.g. XQuery modules, as well as
+     * added, deleted or renamed resources are detected by scanning, which walks the subtrees and
+     * is therefore done less often.</p>
+     */
+    @Parameter(defaultValue = "30000")
+    private long watchScanInterval;
+
+    /**
+     * The period in milliseconds without further local changes, after which changes are
+     * uploaded.
+     *
+     * <p>Bursts of changes, e.g. caused by switching branches, are thereby coalesced.</p>
+     */
+    @Parameter(defaultValue = "300")
+    private long watchDebounce;
+
+    /**
+     * The maximum number of changed local paths kept pending, before all mapped directories are
+     * pushed instead.
+     */
+    @Parameter(defaultValue = "10000")
+    private int watchMaxPending;
+
+    @Override
+    public final void execute() throws MojoExecutionException {
+        requireSingleServer("watch");
+        try {
+            if (!isConfigured()) {
+                return;
+            }
+
+            final SortedMap<URI, File> mappings = initMappings();
+            final SyncFilter filter = filter(mappings);
+            final SyncManifest manifest = manifest();
+            try (ExistDatabase db = database()) {
+                final Synchronizer synchronizer = new Synchronizer(db, getLog());
+                synchronizer.setManifest(manifest);
+                synchronizer.setExclusion(exclusion());
+                synchronizer.setFinalNewline(finalNewline());
+                synchronizer.setFilter(filter);
+
+                final Uploader uploader = new Uploader(db, getLog());
+                uploader.setManifest(manifest);
+                uploader.setExclusion(exclusion());
+                uploader.setFilter(filter);
+
+                final Watcher watcher = new Watcher(db, synchronizer, uploader, manifest, getLog());
+                watcher.setFilter(filter);
+                watcher.setPollInterval(watchPollInterval);
+                watcher.setScanInterval(watchScanInterval);
+                watcher.setDebounce(watchDebounce);
+                watcher.setMaxPending(watchMaxPending);
+                watcher.watch(mappings);
+            }
+            manifest.store();
+        } catch (Exception e) {
+            throw new MojoExecutionException(
+                    String.format("Error while watching '%s'", syncBase),
+                    e
+            );
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.logging.Log;
+import org.xmldb.api.base.ErrorCodes;
+import org.xmldb.api.base.XMLDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuously syncs a set of collections in an eXist-db instance with directories in the local
+ * filesystem, in both directions.
+ *
+ * <p>After an initial {@link Synchronizer sync}, local changes are picked up via a
+ * {@link WatchService} on all mapped directories. Bursts of events are coalesced into a bounded
+ * set of changed mappings, which are {@link Uploader pushed} once no further events have arrived
+ * for the debounce period, or once changes have been pending for ten debounce periods at the
+ * latest. Should the set of pending changes overflow, all mappings are pushed.</p>
+ *
+ * <p>Remote changes are detected by polling every mapped collection with a single
+ * {@link ExistDatabase.Collection#changes(long, Set, boolean) query}, counting the XML documents
+ * modified since the previous poll without walking the subtree. At a lower rate, the subtree is
+ * scanned instead, which also counts modified binary resources and hashes the paths of all
+ * entries, detecting additions, deletions and renames. Collections excluded by the
+ * {@link #setFilter(SyncFilter) filter} are skipped. Mappings with modified resources or a
+ * changed structure are synced. Polling is suspended while local changes are
+ * pending. As files may also be created while a sync is running, or before the watch service
+ * reports them, the synchronizer is set to {@link Synchronizer#setKeepUntracked(boolean) keep}
+ * local files which have not been synced before or have been modified since, so that they are
+ * never deleted as being stale.</p>
+ *
+ * <p>Both directions share the same {@link SyncManifest manifest}, which is stored after every
+ * round of changes, so that files written by one direction are recognized as unchanged by the
+ * other. Like pushing, watching does not delete resources in the database whose local files have
+ * been deleted.</p>
+ *
+ * @see WatchMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class Watcher {
+
+    private static final int MAX_DEBOUNCE_PERIODS = 10;
+
+    private final ExistDatabase db;
+    private final Synchronizer synchronizer;
+    private final Uploader uploader;
+    private final SyncManifest manifest;
+    private final Log log;
+
+    private SyncFilter filter = SyncFilter.none();
+    private long pollInterval = 1000;
+    private long scanInterval = 30000;
+    private long debounce = 300;
+    private int maxPending = 10000;
+
+    /**
+     * Creates a watcher.
+     *
+     * @param db           the database to sync with
+     * @param synchronizer the synchronizer applying remote changes, set to keep untracked files
+     * @param uploader     the uploader applying local changes
+     * @param manifest     the manifest shared by synchronizer and uploader
+     * @param log          log for reporting progress
+     */
+    public Watcher(ExistDatabase db, Synchronizer synchronizer, Uploader uploader,
+                   SyncManifest manifest, Log log) {
+        this.db = db;
+        this.synchronizer = synchronizer;
+        this.synchronizer.setKeepUntracked(true);
+        this.uploader = uploader;
+        this.manifest = manifest;
+        this.log = log;
+    }
+
+    /**
+     * Sets the interval in which mapped collections are polled for remote changes.
+     *
+     * @param pollInterval the interval in milliseconds, per default 1000
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = Math.max(1, pollInterval);
+    }
+
+    /**
+     * Sets the interval in which the subtrees of mapped collections are scanned for modified
+     * binary resources and structural changes, like added or deleted resources.
+     *
+     * @param scanInterval the interval in milliseconds, per default 30000
+     */
+    public void setScanInterval(long scanInterval) {
+        this.scanInterval = Math.max(1, scanInterval);
+    }
+
+    /**
+     * Sets the rules, determining which collections are polled for changes.
+     *
+     * @param filter the filter, per default one including everything
+     */
+    public void setFilter(SyncFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the period without further local changes, after which pending changes are pushed.
+     *
+     * @param debounce the period in milliseconds, per default 300
+     */
+    public void setDebounce(long debounce) {
+        this.debounce = Math.max(0, debounce);
+    }
+
+    /**
+     * Sets the maximum number of changed local paths kept pending, before all mappings are
+     * pushed instead.
+     *
+     * @param maxPending the number of paths, per default 10000
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    /**
+     * Watches a set of mapped collections and directories, until the current thread is
+     * interrupted.
+     *
+     * @param mappings mapping of collection URIs to local directories
+     * @throws Exception in case of database or I/O errors while syncing
+     */
+    public void watch(SortedMap<URI, File> mappings) throws Exception {
+        final Map<URI, ExistDatabase.Changes> polled = new HashMap<>();
+        final Map<URI, ExistDatabase.Changes> scanned = new HashMap<>();
+        for (URI root : mappings.keySet()) {
+            final ExistDatabase.Changes changes = poll(root, Long.MAX_VALUE, true);
+            polled.put(root, changes);
+            scanned.put(root, changes);
+        }
+        synchronizer.sync(mappings);
+        manifest.store();
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            final Map<WatchKey, Path> watched = new HashMap<>();
+            for (File dir : mappings.values()) {
+                register(watchService, dir.toPath(), watched);
+            }
+            log.info(String.format("Watching %d mapping(s)", mappings.size()));
+
+            final Set<Path> pending = new HashSet<>();
+            boolean overflow = false;
+            long firstEvent = 0;
+            long lastEvent = 0;
+            long nextPoll = System.currentTimeMillis() + pollInterval;
+            long nextScan = System.currentTimeMillis() + scanInterval;
+            while (!Thread.currentThread().isInterrupted()) {
+                final long now = System.currentTimeMillis();
+                final boolean changed = overflow || !pending.isEmpty();
+                final long deadline = (changed
+                        ? Math.min(lastEvent + debounce, firstEvent + maxDelay())
+                        : nextPoll);
+
+                final WatchKey key;
+                try {
+                    key = watchService.poll(Math.max(0, deadline - now), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (key != null) {
+                    final Path dir = watched.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (pending.isEmpty() && !overflow) {
+                            firstEvent = System.currentTimeMillis();
+                        }
+                        lastEvent = System.currentTimeMillis();
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                            overflow = true;
+                            continue;
+                        }
+                        final Path path = dir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                && Files.isDirectory(path)) {
+                            register(watchService, path, watched);
+                        }
+                        if (!overflow) {
+                            pending.add(path);
+                            if (pending.size() > maxPending) {
+                                pending.clear();
+                                overflow = true;
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        watched.remove(key);
+                    }
+                    continue;
+                }
+
+                final long current = System.currentTimeMillis();
+                if (changed) {
+                    if (current < lastEvent + debounce && current < firstEvent + maxDelay()) {
+                        continue;
+                    }
+                    final Set<URI> roots = (overflow
+                            ? mappings.keySet() : roots(mappings, pending));
+                    pending.clear();
+                    overflow = false;
+                    if (!roots.isEmpty()) {
+                        uploader.push(mappings, roots);
+                        manifest.store();
+                    }
+                } else if (current >= nextPoll) {
+                    final boolean scan = (current >= nextScan);
+                    final Set<URI> roots = new HashSet<>();
+                    for (URI root : mappings.keySet()) {
+                        // scans count modified binaries, which polls in between do not
+                        final ExistDatabase.Changes previous =
+                                (scan ? scanned : polled).get(root);
+                        final ExistDatabase.Changes changes =
+                                poll(root, previous.timestamp(), scan);
+                        if (changes.modified() > 0 || (scan
+                                && !changes.structure().equals(previous.structure()))) {
+                            roots.add(root);
+                        }
+                        polled.put(root, changes);
+                        if (scan) {
+                            scanned.put(root, changes);
+                        }
+                    }
+                    if (scan) {
+                        nextScan = System.currentTimeMillis() + scanInterval;
+                    }
+                    if (!roots.isEmpty()) {
+                        synchronizer.sync(mappings, roots);
+                        manifest.store();
+                    }
+                    nextPoll = System.currentTimeMillis() + pollInterval;
+                }
+            }
+        }
+    }
+
+    private long maxDelay() {
+        return debounce * MAX_DEBOUNCE_PERIODS;
+    }
+
+    private ExistDatabase.Changes poll(URI root, long since, boolean scan) throws Exception {
+        try (ExistDatabase.Collection collection = db.collection(root)) {
+            return collection.changes(since, filter.excludedCollections(), scan);
+        } catch (XMLDBException e) {
+            if (e.errorCode != ErrorCodes.NO_SUCH_COLLECTION) {
+                throw e;
+            }
+            return new ExistDatabase.Changes(System.currentTimeMillis(), "", 0);
+        }
+    }
+
+    /**
+     * Determines the mappings affected by local changes, i.e. the mappings with the most
+     * specific directories containing changed paths.
+     */
+    private static Set<URI> roots(SortedMap<URI, File> mappings, Set<Path> changed) {
+        final Set<URI> roots = new HashSet<>();
+        for (Path path : changed) {
+            URI root = null;
+            Path rootDir = null;
+            for (Map.Entry<URI, File> mapping : mappings.entrySet()) {
+                final Path dir = mapping.getValue().toPath();
+                if (path.startsWith(dir) && (rootDir == null || dir.startsWith(rootDir))) {
+                    root = mapping.getKey();
+                    rootDir = dir;
+                }
+            }
+            if (root != null) {
+                roots.add(root);
+            }
+        }
+        return roots;
+    }
+
+    private static void register(WatchService watchService, Path root,
+                                 Map<WatchKey, Path> watched) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                watched.put(dir.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE
+                ), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.xmldb.api.base.XMLDBException;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the XQSuite tests of an application in an eXist-db instance and reports their results in
+ * the XML format of the Maven Surefire plugin.
+ *
+ * <p>Test modules are found by searching a collection subtree for XQuery modules, which import
+ * the XQSuite namespace. Modules are run concurrently via the database's pooled connections, each
+ * one with a timeout enforced by the database. Optionally, test functions are run one at a time,
+ * trading repeated set-up and tear-down for finer-grained parallelism and measured timings per
+ * test function. The report of each module is written as soon as all of its tests have run.</p>
+ *
+ * <p>Tests are run against the configured server or, should none be configured, against the
+ * {@link EmbeddedExist embedded instance} started by the {@link StartMojo start goal}.</p>
+ *
+ * <p>Sample configuration:</p>
+ *
+ * <pre>{@literal
+<configuration>
+  <testCollection>xmldb:exist:///db/apps/myapp/tests/</testCollection>
+  <testThreads>8</testThreads>
+</configuration>
+ * }</pre>
+ *
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+@Mojo(name = "test", defaultPhase = LifecyclePhase.INTEGRATION_TEST)
+public class XQSuiteMojo extends AbstractExistMojo {
+
+    private static final String DISCOVERY_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "import module namespace inspect=\"http://exist-db.org/xquery/inspection\";",
+            "declare variable $collection external;",
+            "declare variable $pattern external;",
+            "declare variable $functions external;",
+            "declare function local:modules($collection as xs:string) as xs:string* {",
+            "  for $name in xmldb:get-child-resources($collection)",
+            "  let $path := concat($collection, \"/\", $name)",
+            "  where matches($name, $pattern) and util:binary-doc-available($path)",
+            "    and contains(util:binary-to-string(util:binary-doc($path)),",
+            "      \"http://exist-db.org/xquery/xqsuite\")",
+            "  order by $name",
+            "  return $path,",
+            "  for $child in xmldb:get-child-collections($collection)",
+            "  order by $child",
+            "  return local:modules(concat($collection, \"/\", $child))",
+            "};",
+            "declare function local:tests($module as xs:string) as xs:string* {",
+            "  distinct-values(",
+            "    for $function in inspect:module-functions(",
+            "      xs:anyURI(concat(\"xmldb:exist://\", $module)))",
+            "    let $annotations := inspect:inspect-function($function)/annotation[",
+            "      @namespace = \"http://exist-db.org/xquery/xqsuite\"]",
+            "    where some $a in $annotations",
+            "      satisfies not(substring-after($a/@name, \":\") = (\"setUp\", \"tearDown\"))",
+            "    return concat($module, \"&#9;\", local-name-from-QName(function-name($function)))",
+            "  )",
+            "};",
+            "string-join(",
+            "  for $module in local:modules($collection)",
+            "  return if ($functions) then local:tests($module) else $module,",
+            "  \"&#10;\"",
+            ")"
+    );
+
+    private static final String SUITE_QUERY = String.join("\n",
+            "xquery version \"3.0\";",
+            "import module namespace inspect=\"http://exist-db.org/xquery/inspection\";",
+            "import module namespace test=\"http://exist-db.org/xquery/xqsuite\"",
+            "  at \"resource:org/exist/xquery/lib/xqsuite/xqsuite.xql\";",
+            "declare option exist:timeout \"%d\";",
+            "declare variable $module external;",
+            "declare variable $function external;",
+            "let $functions := inspect:module-functions(",
+            "  xs:anyURI(concat(\"xmldb:exist://\", $module)))",
+            "return test:suite(",
+            "  if ($function = \"\") then $functions else $functions[",
+            "    local-name-from-QName(function-name(.)) = $function or (",
+            "      let $annotations := inspect:inspect-function(.)/annotation[",
+            "        @namespace = \"http://exist-db.org/xquery/xqsuite\"]",
+            "      return exists($annotations) and (every $a in $annotations",
+            "        satisfies substring-after($a/@name, \":\") = (\"setUp\", \"tearDown\"))",
+            "    )",
+            "  ]",
+            ")"
+    );
+
+    /**
+     * The URI of the collection, whose subtree is searched for test modules.
+     */
+    @Parameter(required = true)
+    private String testCollection;
+
+    /**
+     * A regular expression, which the names of test modules have to match.
+     */
+    @Parameter(defaultValue = "\\.xqm$")
+    private String testModulePattern;
+
+    /**
+     * The number of test modules, or test functions, run concurrently.
+     */
+    @Parameter(defaultValue = "4")
+    private int testThreads;
+
+    /**
+     * The time in milliseconds, after which the database aborts a test module, or a single test
+     * function, reporting an error.
+     *
+     * <p>Remote servers are queried with the configured query timeout, which therefore has to
+     * exceed this one.</p>
+     */
+    @Parameter(defaultValue = "60000")
+    private long testTimeout;
+
+    /**
+     * Whether to run each test function on its own instead of running whole modules.
+     *
+     * <p>This runs set-up and tear-down functions before and after every test function, but
+     * spreads the tests of large modules across threads and yields measured timings per test
+     * function.</p>
+     */
+    @Parameter(defaultValue = "false")
+    private boolean testPerFunction;
+
+    /**
+     * Whether to report test failures without failing the build.
+     */
+    @Parameter(property = "maven.test.failure.ignore", defaultValue = "false")
+    private boolean testFailureIgnore;
+
+    /**
+     * Whether to skip running tests.
+     */
+    @Parameter(property = "skipTests", defaultValue = "false")
+    private boolean skipTests;
+
+    /**
+     * The directory into which test reports are written.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/xqsuite-reports", required = true)
+    private File reportsDirectory;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skipTests) {
+            getLog().info("Tests are skipped.");
+            return;
+        }
+        final URI collectionUri = ExistUri.create(
+                testCollection.endsWith("/") ? testCollection : testCollection + "/"
+        );
+        final List<XQSuiteReport> reports;
+        try (ExistDatabase db = testDatabase()) {
+            final Map<String, List<String>> tests = discover(db, collectionUri);
+            if (tests.isEmpty()) {
+                getLog().warn(String.format("No test modules found in '%s'", collectionUri));
+                return;
+            }
+            reports = run(db, collectionUri, tests);
+            report(db.metrics(), "test");
+        } catch (MojoExecutionException | MojoFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MojoExecutionException(
+                    String.format("Error while running tests in '%s'", collectionUri),
+                    e
+            );
+        }
+
+        int tests = 0;
+        int failures = 0;
+        int errors = 0;
+        int skipped = 0;
+        for (XQSuiteReport report : reports) {
+            tests += report.tests();
+            failures += report.failures();
+            errors += report.errors();
+            skipped += report.skipped();
+        }
+        getLog().info(String.format(
+                "Tests run: %d, Failures: %d, Errors: %d, Skipped: %d",
+                tests, failures, errors, skipped
+        ));
+        if (failures + errors > 0) {
+            final String message = String.format(
+                    "There are test failures; see '%s' for the individual test results.",
+                    reportsDirectory
+            );
+            if (!testFailureIgnore) {
+                throw new MojoFailureException(message);
+            }
+            getLog().error(message);
+        }
+    }
+
+    /**
+     * Accesses the configured server or, should none be configured, the embedded instance.
+     */
+    private ExistDatabase testDatabase() throws MojoExecutionException {
+        requireSingleServer("test");
+        if (serverId != null) {
+            return database();
+        }
+        final EmbeddedExist embedded = (EmbeddedExist) getPluginContext().get(StartMojo.INSTANCE);
+        if (embedded == null) {
+            throw new MojoExecutionException("No server defined and no embedded instance running");
+        }
+        return embedded.database();
+    }
+
+    /**
+     * Finds test modules and, if tests are run per function, their test functions.
+     *
+     * @return the database paths of test modules, mapped to the names of test functions to be
+     * run on their own, or to an empty string for running the whole module
+     */
+    private Map<String, List<String>> discover(ExistDatabase db, URI collectionUri)
+            throws XMLDBException {
+        final Map<String, Object> variables = new HashMap<>();
+        variables.put("pattern", testModulePattern);
+        variables.put("functions", testPerFunction);
+
+        final String result;
+        try (ExistDatabase.Collection collection = db.collection(collectionUri)) {
+            result = collection.query(DISCOVERY_QUERY, variables);
+        }
+        final Map<String, List<String>> tests = new LinkedHashMap<>();
+        for (String line : result.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            final String[] test = line.split("\t", 2);
+            tests.computeIfAbsent(test[0], m -> new ArrayList<>())
+                    .add(test.length > 1 ? test[1] : "");
+        }
+        return tests;
+    }
+
+    private List<XQSuiteReport> run(ExistDatabase db, URI collectionUri,
+                                    Map<String, List<String>> tests) throws Exception {
+        final Path reportsDir = reportsDirectory.toPath();
+        final String suiteQuery = String.format(SUITE_QUERY, testTimeout);
+        final Metrics metrics = db.metrics();
+        final List<XQSuiteReport> reports = new ArrayList<>();
+        final List<Future<?>> results = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, testThreads));
+        try {
+            for (Map.Entry<String, List<String>> module : tests.entrySet()) {
+                final String path = module.getKey();
+                final XQSuiteReport report = new XQSuiteReport(suiteName(path));
+                final AtomicInteger remaining = new AtomicInteger(module.getValue().size());
+                reports.add(report);
+                for (String function : module.getValue()) {
+                    results.add(executor.submit(() -> {
+                        final Map<String, Object> variables = new HashMap<>();
+                        variables.put("module", path);
+                        variables.put("function", function);
+
+                        final long start = metrics.start();
+                        try (ExistDatabase.Collection collection =
+                                     db.collection(collectionUri)) {
+                            final String result = collection.query(suiteQuery, variables);
+                            report.add(result, elapsedMillis(start));
+                        } catch (XMLDBException e) {
+                            report.addError(
+                                    function.isEmpty() ? report.name() : function,
+                                    e, elapsedMillis(start)
+                            );
+                        }
+                        metrics.record("test", start, function.isEmpty()
+                                ? path : path + "#" + function);
+                        metrics.count("tests", 1);
+
+                        if (remaining.decrementAndGet() == 0) {
+                            report.write(reportsDir);
+                            getLog().info(String.format(
+                                    "Tests run: %d, Failures: %d, Errors: %d, Skipped: %d, "
+                                            + "Time elapsed: %.3f s - in %s",
+                                    report.tests(), report.failures(), report.errors(),
+                                    report.skipped(), report.millis() / 1000.0, report.name()
+                            ));
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    throw (cause instanceof Exception ? (Exception) cause : e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return Collections.unmodifiableList(reports);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Derives the name of a suite from the database path of its module, e.g.
+     * <code>apps.myapp.tests.utils</code> from <code>/db/apps/myapp/tests/utils.xqm</code>.
+     */
+    static String suiteName(String path) {
+        final String relative = path.replaceFirst("^/db/", "");
+        final int extension = relative.lastIndexOf('.');
+        return (extension > relative.lastIndexOf('/') ? relative.substring(0, extension) : relative)
+                .replaceAll("[^\\w/-]", "_")
+                .replace('/', '.');
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The results of running the tests of an XQSuite module, reported in the XML format of the Maven
+ * Surefire plugin.
+ *
+ * <p>Results are added as returned by <code>test:suite()</code>, either for the whole module at
+ * once or for single test functions. Failures are reported with the expected value as message and
+ * the actual one as output, pending tests as skipped. Errors raised while running a module, e.g.
+ * when it exceeds its timeout, are reported as an erroneous test case.</p>
+ *
+ * <p>XQSuite reports the time taken per module, but not necessarily per test. Should a result
+ * contain a single test case without a time, e.g. because the test function has been run on its
+ * own, the time taken by the whole invocation is attributed to it.</p>
+ *
+ * @see XQSuiteMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+class XQSuiteReport {
+
+    private static final DatatypeFactory DATATYPES;
+
+    static {
+        try {
+            DATATYPES = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String name;
+    private final List<TestCase> testCases = new ArrayList<>();
+    private long millis = 0;
+
+    /**
+     * Creates an empty report.
+     *
+     * @param name the name of the suite, used as the class name of its test cases
+     */
+    XQSuiteReport(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds the result of an invocation of <code>test:suite()</code>.
+     *
+     * @param result        the serialized result
+     * @param elapsedMillis the time taken by the invocation as measured by the caller
+     * @throws IllegalArgumentException in case the result cannot be parsed
+     */
+    synchronized void add(String result, long elapsedMillis) {
+        final Document doc;
+        try {
+            doc = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(result)));
+        } catch (Exception e) {
+            throw new IllegalArgumentException(result, e);
+        }
+
+        final NodeList suites = doc.getElementsByTagName("testsuite");
+        long suiteMillis = 0;
+        for (int sc = 0; sc < suites.getLength(); sc++) {
+            suiteMillis += millis(((Element) suites.item(sc)).getAttribute("time"), 0);
+        }
+        millis += (suiteMillis > 0 ? suiteMillis : elapsedMillis);
+
+        final NodeList cases = doc.getElementsByTagName("testcase");
+        for (int cc = 0; cc < cases.getLength(); cc++) {
+            final Element testCase = (Element) cases.item(cc);
+            final long caseMillis = millis(
+                    testCase.getAttribute("time"),
+                    cases.getLength() == 1 ? (suiteMillis > 0 ? suiteMillis : elapsedMillis) : 0
+            );
+            final Element failure = child(testCase, "failure");
+            final Element problem = (failure == null ? child(testCase, "error") : failure);
+            final Element output = child(testCase, "output");
+            if (problem != null) {
+                testCases.add(new TestCase(
+                        testCase.getAttribute("name"), caseMillis, problem.getNodeName(),
+                        problem.getAttribute("type"), problem.getAttribute("message"),
+                        problem.getTextContent(), output == null ? null : output.getTextContent()
+                ));
+            } else {
+                testCases.add(new TestCase(
+                        testCase.getAttribute("name"), caseMillis,
+                        child(testCase, "pending") == null ? null : "skipped",
+                        null, null, null, null
+                ));
+            }
+        }
+    }
+
+    /**
+     * Adds an error, which prevented tests from being run.
+     *
+     * @param testName      the name of the test case to report the error for
+     * @param error         the error
+     * @param elapsedMillis the time taken until the error has been raised
+     */
+    synchronized void addError(String testName, Exception error, long elapsedMillis) {
+        millis += elapsedMillis;
+        testCases.add(new TestCase(
+                testName, elapsedMillis, "error",
+                error.getClass().getName(), error.getMessage(), error.toString(), null
+        ));
+    }
+
+    /**
+     * The name of the suite.
+     *
+     * @return the name passed on creation
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * The number of test cases.
+     *
+     * @return the number of test cases, including failed, erroneous and skipped ones
+     */
+    synchronized int tests() {
+        return testCases.size();
+    }
+
+    /**
+     * The number of failed test cases.
+     *
+     * @return the number of test cases with status <code>failure</code>
+     */
+    synchronized int failures() {
+        return count("failure");
+    }
+
+    /**
+     * The number of erroneous test cases.
+     *
+     * @return the number of test cases with status <code>error</code>
+     */
+    synchronized int errors() {
+        return count("error");
+    }
+
+    /**
+     * The number of skipped test cases.
+     *
+     * @return the number of test cases with status <code>skipped</code>
+     */
+    synchronized int skipped() {
+        return count("skipped");
+    }
+
+    /**
+     * The time taken by all tests.
+     *
+     * @return the time in milliseconds
+     */
+    synchronized long millis() {
+        return millis;
+    }
+
+    /**
+     * Writes the report to a file named <code>TEST-</code><em>name</em><code>.xml</code>.
+     *
+     * @param directory the directory to write the report to, created if necessary
+     * @return the report file
+     * @throws IOException in case of errors while writing the report
+     */
+    synchronized Path write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = directory.resolve("TEST-" + name + ".xml");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            final XMLStreamWriter xml = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("testsuite");
+            xml.writeAttribute("name", name);
+            xml.writeAttribute("time", seconds(millis));
+            xml.writeAttribute("tests", Integer.toString(tests()));
+            xml.writeAttribute("errors", Integer.toString(errors()));
+            xml.writeAttribute("skipped", Integer.toString(skipped()));
+            xml.writeAttribute("failures", Integer.toString(failures()));
+            for (TestCase testCase : testCases) {
+                xml.writeCharacters("\n  ");
+                testCase.write(xml, name);
+            }
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        return file;
+    }
+
+    private int count(String status) {
+        return (int) testCases.stream().filter(tc -> status.equals(tc.status)).count();
+    }
+
+    private static Element child(Element parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && name.equals(child.getNodeName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a time, given either as a duration like <code>PT0.25S</code> or in seconds.
+     */
+    private static long millis(String time, long defaultMillis) {
+        if (time.isEmpty()) {
+            return defaultMillis;
+        }
+        try {
+            return (time.startsWith("P") || time.startsWith("-P")
+                    ? DATATYPES.newDuration(time).getTimeInMillis(new Date(0))
+                    : Math.round(Double.parseDouble(time) * 1000));
+        } catch (IllegalArgumentException e) {
+            return defaultMillis;
+        }
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    private static class TestCase {
+
+        private final String name;
+        private final long millis;
+        private final String status;
+        private final String type;
+        private final String message;
+        private final String detail;
+        private final String output;
+
+        private TestCase(String name, long millis, String status,
+                         String type, String message, String detail, String output) {
+            this.name = name;
+            this.millis = millis;
+            this.status = status;
+            this.type = type;
+            this.message = message;
+            this.detail = detail;
+            this.output = output;
+        }
+
+        private void write(XMLStreamWriter xml, String className) throws XMLStreamException {
+            xml.writeStartElement("testcase");
+            xml.writeAttribute("name", name);
+            xml.writeAttribute("classname", className);
+            xml.writeAttribute("time", seconds(millis));
+            if (status != null) {
+                xml.writeStartElement(status);
+                if (type != null && !type.isEmpty()) {
+                    xml.writeAttribute("type", type);
+                }
+                if (message != null) {
+                    xml.writeAttribute("message", message);
+                }
+                if (detail != null) {
+                    xml.writeCharacters(detail);
+                }
+                xml.writeEndElement();
+            }
+            if (output != null) {
+                xml.writeStartElement("system-out");
+                xml.writeCharacters(output);
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+        }
+    }
+}
@@ -0,0 +1,765 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.maven.plugin.logging.Log;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Packages the contents of a directory into a XAR archive.
+ *
+ * <p>Entries are written in lexical order of their paths. Files are deflated independently of
+ * each other, optionally on a pool of worker threads, into scatter buffers which are then
+ * appended to the archive in order, so that the resulting archive is byte-identical regardless of
+ * the number of threads. Compression runs ahead of writing by a bounded number of entries and
+ * of bytes buffered in memory. In incremental mode, an index of the packaged files' sizes and
+ * modification times is kept next to the archive. On subsequent runs, entries of files which are
+ * unchanged according to the index, or whose content still matches the entry's checksum, are
+ * copied from the previous archive in their compressed form, with their modification time taken
+ * from the file; only added or modified files are compressed anew. The index records the
+ * {@link CompressionPolicy compression policy} it has been created with; changing the policy
+ * invalidates it.</p>
+ *
+ * <p>Optionally, archiving is skipped altogether as long as a fingerprint of the packaged files
+ * is unchanged, and XML entries are {@link XarValidator validated} while the archive is being
+ * created.</p>
+ *
+ * @see XarMojo
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class XarArchiver {
+
+    private static final int INDEX_MAGIC = 0x78617249;
+    private static final int INDEX_VERSION = 2;
+
+    private static final int FINGERPRINT_MAGIC = 0x78617246;
+    private static final int FINGERPRINT_VERSION = 1;
+
+    /**
+     * Size in bytes beyond which compressed entries are buffered in temporary files rather than
+     * in memory.
+     */
+    private static final long SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+    /**
+     * Number of entries per thread which may be compressed ahead of the one written next.
+     */
+    private static final int WINDOW_PER_THREAD = 4;
+
+    /**
+     * Number of bytes of entries, buffered in memory, which may be compressed ahead of the one
+     * written next.
+     */
+    private static final long WINDOW_BYTES = 4 * SPILL_THRESHOLD;
+
+    private final File directory;
+    private final File xarFile;
+    private final Log log;
+
+    private boolean incremental;
+    private int threads = 1;
+    private CompressionPolicy policy = new CompressionPolicy();
+    private Metrics metrics = new Metrics();
+    private boolean upToDateCheck;
+    private XarValidator validator;
+
+    /**
+     * Creates an archiver.
+     *
+     * @param directory the directory whose contents are packaged
+     * @param xarFile   the archive to be created
+     * @param log       log for reporting progress
+     */
+    public XarArchiver(File directory, File xarFile, Log log) {
+        this.directory = directory;
+        this.xarFile = xarFile;
+        this.log = log;
+    }
+
+    /**
+     * Determines whether compressed entries of the previous archive are reused for unchanged
+     * files.
+     *
+     * @param incremental <code>false</code> per default
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Sets the number of files to be compressed concurrently.
+     *
+     * @param threads the number of worker threads, per default 1
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the policy determining how files are compressed.
+     *
+     * @param policy the policy, per default one storing files of compressed types and
+     *               deflating all others with the default level
+     */
+    public void setPolicy(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets the metrics recording compression times and sizes.
+     *
+     * @param metrics the metrics, per default a private instance
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Determines whether archiving is skipped if the packaged files are unchanged.
+     *
+     * <p>A fingerprint of the packaged files' paths, sizes and content hashes, as well as of the
+     * compression policy and of whether entries are validated, is then kept next to the
+     * archive. Should the fingerprint of the current files match the recorded one, and the
+     * archive not have been modified since, it is left as is. Content hashes of files whose size
+     * and modification time match the recorded ones are taken from the record.</p>
+     *
+     * @param upToDateCheck <code>false</code> per default
+     */
+    public void setUpToDateCheck(boolean upToDateCheck) {
+        this.upToDateCheck = upToDateCheck;
+    }
+
+    /**
+     * Sets a validator, to which XML entries are submitted while the archive is being created.
+     *
+     * <p>Should the validator report errors, archiving is aborted and the previous archive is
+     * left in place.</p>
+     *
+     * @param validator the validator or <code>null</code> if entries are not to be validated,
+     *                  the default
+     */
+    public void setValidator(XarValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * The fingerprint of the packaged files, kept next to the archive if
+     * {@link #setUpToDateCheck(boolean) up-to-date checks} are enabled.
+     *
+     * @return the fingerprint file
+     */
+    public File fingerprintFile() {
+        return new File(xarFile.getPath() + ".fingerprint");
+    }
+
+    /**
+     * Computes the fingerprint of the files to be packaged.
+     *
+     * @return a hex-encoded digest of the packaged files' paths, sizes and contents, as well as
+     * of the compression policy and of whether entries are validated
+     * @throws IOException in case of errors while reading files
+     */
+    public String fingerprint() throws IOException {
+        return fingerprint(entries(), readFingerprint()).digest;
+    }
+
+    /**
+     * The index of packaged files, kept next to the archive in incremental mode.
+     *
+     * @return the index file
+     */
+    public File indexFile() {
+        return new File(xarFile.getPath() + ".index");
+    }
+
+    /**
+     * Creates the archive, replacing a previously created one.
+     *
+     * @return <code>false</code> if the archive has been found to be up to date, so that it
+     * has not been created anew
+     * @throws IOException in case of errors while reading files or writing the archive
+     * @throws XarValidator.ValidationException in case the validator reports invalid entries
+     */
+    public boolean createArchive() throws IOException {
+        final SortedMap<String, Path> entries = entries();
+        Fingerprint fingerprint = null;
+        if (upToDateCheck) {
+            final Fingerprint recorded = readFingerprint();
+            fingerprint = fingerprint(entries, recorded);
+            if (recorded != null && recorded.digest.equals(fingerprint.digest)
+                    && xarFile.isFile() && xarFile.length() == recorded.xarSize
+                    && xarFile.lastModified() == recorded.xarModified) {
+                metrics.count("archivesSkipped", 1);
+                log.info(String.format("'%s' is up to date", xarFile));
+                return false;
+            }
+        }
+        Files.deleteIfExists(fingerprintFile().toPath());
+
+        final Map<String, IndexEntry> previousIndex = (incremental
+                ? readIndex() : Collections.<String, IndexEntry>emptyMap());
+        final Map<String, IndexEntry> index = new HashMap<>();
+
+        Files.createDirectories(xarFile.getAbsoluteFile().getParentFile().toPath());
+        final File tmp = new File(xarFile.getPath() + ".tmp");
+        final ExecutorService executor = (threads > 1
+                ? Executors.newFixedThreadPool(threads) : null);
+        final Deque<Future<Compressed>> pending = new ArrayDeque<>();
+        final Deque<Long> pendingBytes = new ArrayDeque<>();
+        int reused = 0;
+        boolean created = false;
+        try (ZipFile previous = (previousIndex.isEmpty() || !xarFile.isFile()
+                ? null : new ZipFile(xarFile));
+             ZipArchiveOutputStream out = new ZipArchiveOutputStream(tmp)) {
+            out.setEncoding("UTF-8");
+            for (Map.Entry<String, Path> entry : entries.entrySet()) {
+                final String name = entry.getKey();
+                final Path file = entry.getValue();
+                final BasicFileAttributes attrs =
+                        Files.readAttributes(file, BasicFileAttributes.class);
+                final long lastModified = attrs.lastModifiedTime().toMillis();
+
+                if (attrs.isDirectory()) {
+                    final ZipArchiveEntry dirEntry = new ZipArchiveEntry(name);
+                    dirEntry.setTime(lastModified);
+                    pending.add(CompletableFuture.completedFuture(
+                            new Compressed(dirEntry, false, null, null, false)
+                    ));
+                    pendingBytes.add(0L);
+                } else {
+                    index.put(name, new IndexEntry(attrs.size(), lastModified));
+                    if (validator != null && isXml(name)) {
+                        validator.submit(name, file);
+                    }
+
+                    final ZipArchiveEntry previousEntry = (previous == null
+                            ? null : previous.getEntry(name));
+                    if (previousEntry != null && isUnchanged(
+                            file, attrs, previousIndex.get(name), previousEntry)) {
+                        // the content matches, but the file might have been touched since
+                        previousEntry.setTime(lastModified);
+                        pending.add(CompletableFuture.completedFuture(
+                                new Compressed(previousEntry, true, null, null, false)
+                        ));
+                        pendingBytes.add(0L);
+                        reused++;
+                        metrics.count("entriesReused", 1);
+                    } else {
+                        final long buffered = (attrs.size() > SPILL_THRESHOLD ? 0 : attrs.size());
+                        while (!pending.isEmpty() && sum(pendingBytes) + buffered > WINDOW_BYTES) {
+                            pendingBytes.remove();
+                            write(pending.remove(), out, previous);
+                        }
+                        pending.add(executor == null
+                                ? CompletableFuture.completedFuture(compress(name, file, attrs))
+                                : executor.submit(() -> compress(name, file, attrs)));
+                        pendingBytes.add(buffered);
+                    }
+                }
+
+                while (pending.size() > threads * WINDOW_PER_THREAD) {
+                    pendingBytes.remove();
+                    write(pending.remove(), out, previous);
+                }
+                if (validator != null && validator.hasErrors()) {
+                    validator.finish();
+                }
+                metrics.progress(log, () -> "Packaging: " + metrics.summary());
+            }
+            while (!pending.isEmpty()) {
+                write(pending.remove(), out, previous);
+            }
+            if (validator != null) {
+                validator.finish();
+            }
+            created = true;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (Future<Compressed> abandoned : pending) {
+                discard(abandoned);
+            }
+            if (!created) {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+        Files.move(tmp.toPath(), xarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (fingerprint != null) {
+            writeFingerprint(fingerprint);
+        }
+
+        if (incremental) {
+            writeIndex(index);
+        } else {
+            Files.deleteIfExists(indexFile().toPath());
+        }
+        log.info(String.format(
+                "Packaged %d entries into '%s' (%d reused)", entries.size(), xarFile, reused
+        ));
+        return true;
+    }
+
+    /**
+     * Compresses a file, recording the time taken and the resulting sizes.
+     */
+    private Compressed compress(String name, Path file, BasicFileAttributes attrs)
+            throws IOException {
+        final long start = metrics.start();
+        final Compressed compressed = deflate(name, file, attrs);
+        metrics.record("compress", start, name);
+
+        final ZipArchiveEntry entry = compressed.entry;
+        metrics.count(entry.getMethod() == ZipEntry.STORED
+                ? "entriesStored" : "entriesDeflated", 1);
+        metrics.count("bytesRead", entry.getSize());
+        metrics.count("bytesWritten", entry.getCompressedSize());
+        return compressed;
+    }
+
+    /**
+     * Compresses a file into a self-contained deflate stream, held in memory or, for large
+     * files, spilled to a temporary file, unless the compression policy has the file stored.
+     */
+    private Compressed deflate(String name, Path file, BasicFileAttributes attrs)
+            throws IOException {
+        final int level = policy.level(name);
+        if (level == CompressionPolicy.STORED) {
+            return store(name, file, attrs);
+        }
+
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(attrs.lastModifiedTime().toMillis());
+        entry.setMethod(ZipEntry.DEFLATED);
+
+        final boolean spill = attrs.size() > SPILL_THRESHOLD;
+        final Path spillFile = (spill ? Files.createTempFile("xar-", ".deflated") : null);
+        final ByteArrayOutputStream buf = (spill
+                ? null : new ByteArrayOutputStream((int) attrs.size() / 2 + 64));
+
+        final Deflater deflater = new Deflater(level, true);
+        final CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = (spill
+                     ? new BufferedOutputStream(Files.newOutputStream(spillFile))
+                     : buf)) {
+            final byte[] input = new byte[ExistDatabase.CHUNK_SIZE];
+            final byte[] output = new byte[ExistDatabase.CHUNK_SIZE];
+            for (int read = in.read(input); read >= 0; read = in.read(input)) {
+                crc.update(input, 0, read);
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    out.write(output, 0, deflater.deflate(output));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(output, 0, deflater.deflate(output));
+            }
+            entry.setCrc(crc.getValue());
+            entry.setSize(deflater.getBytesRead());
+            entry.setCompressedSize(deflater.getBytesWritten());
+        } catch (IOException | RuntimeException e) {
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile);
+            }
+            throw e;
+        } finally {
+            deflater.end();
+        }
+
+        if (!policy.keepDeflated(entry.getSize(), entry.getCompressedSize())) {
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile);
+            }
+            return store(name, file, attrs);
+        }
+        return new Compressed(entry, false, (spill ? null : buf.toByteArray()), spillFile, true);
+    }
+
+    /**
+     * Prepares an uncompressed entry, whose content is held in memory or, for large files, read
+     * from the file when the entry is written.
+     */
+    private static Compressed store(String name, Path file, BasicFileAttributes attrs)
+            throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(attrs.lastModifiedTime().toMillis());
+        entry.setMethod(ZipEntry.STORED);
+
+        final byte[] data = (attrs.size() > SPILL_THRESHOLD ? null : Files.readAllBytes(file));
+        final CRC32 crc = new CRC32();
+        if (data == null) {
+            entry.setCrc(crc(file));
+            entry.setSize(attrs.size());
+        } else {
+            crc.update(data, 0, data.length);
+            entry.setCrc(crc.getValue());
+            entry.setSize(data.length);
+        }
+        entry.setCompressedSize(entry.getSize());
+        return new Compressed(entry, false, data, (data == null ? file : null), false);
+    }
+
+    private static void write(Future<Compressed> pending, ZipArchiveOutputStream out,
+                              ZipFile previous) throws IOException {
+        final Compressed compressed;
+        try {
+            compressed = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            throw (cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        }
+
+        final ZipArchiveEntry entry = compressed.entry;
+        if (entry.isDirectory()) {
+            out.putArchiveEntry(entry);
+            out.closeArchiveEntry();
+        } else if (compressed.reused) {
+            try (InputStream raw = previous.getRawInputStream(entry)) {
+                out.addRawArchiveEntry(entry, raw);
+            }
+        } else {
+            try (InputStream raw = (compressed.file == null
+                    ? new ByteArrayInputStream(compressed.data)
+                    : new BufferedInputStream(Files.newInputStream(compressed.file)))) {
+                out.addRawArchiveEntry(entry, raw);
+            } finally {
+                compressed.cleanup();
+            }
+        }
+    }
+
+    private static long sum(Deque<Long> sizes) {
+        long sum = 0;
+        for (long size : sizes) {
+            sum += size;
+        }
+        return sum;
+    }
+
+    private static void discard(Future<Compressed> pending) {
+        if (!pending.cancel(true) && pending.isDone()) {
+            try {
+                pending.get().cleanup();
+            } catch (InterruptedException | ExecutionException | IOException e) {
+                // nothing to clean up
+            }
+        }
+    }
+
+    private SortedMap<String, Path> entries() throws IOException {
+        final SortedMap<String, Path> entries = new TreeMap<>();
+        final Path root = directory.toPath();
+        if (!Files.isDirectory(root)) {
+            return entries;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root)) {
+                    entries.put(name(root, dir) + "/", dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                entries.put(name(root, file), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    private static String name(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isXml(String name) {
+        if (name.equals(XarValidator.PACKAGE_DESCRIPTOR)
+                || name.equals(XarValidator.REPO_DESCRIPTOR)) {
+            return true;
+        }
+        final MimeType mimeType = MimeTable.getInstance()
+                .getContentTypeFor(name.substring(name.lastIndexOf('/') + 1));
+        return (mimeType != null && mimeType.isXMLType());
+    }
+
+    private static boolean isUnchanged(Path file, BasicFileAttributes attrs,
+                                       IndexEntry indexed, ZipArchiveEntry previous)
+            throws IOException {
+        if (indexed == null || previous.getCrc() == -1) {
+            return false;
+        }
+        if (indexed.size != attrs.size() || previous.getSize() != attrs.size()) {
+            return false;
+        }
+        return indexed.lastModified == attrs.lastModifiedTime().toMillis()
+                || crc(file) == previous.getCrc();
+    }
+
+    private static long crc(Path file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            final byte[] buf = new byte[ExistDatabase.CHUNK_SIZE];
+            for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+                crc.update(buf, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private Map<String, IndexEntry> readIndex() {
+        final Map<String, IndexEntry> index = new HashMap<>();
+        final File indexFile = indexFile();
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                return index;
+            }
+            if (!policy.toString().equals(in.readUTF())) {
+                return index;
+            }
+            for (int ec = in.readInt(); ec > 0; ec--) {
+                index.put(in.readUTF(), new IndexEntry(in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            index.clear();
+        }
+        return index;
+    }
+
+    private void writeIndex(Map<String, IndexEntry> index) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(indexFile().toPath())))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(policy.toString());
+            out.writeInt(index.size());
+            for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+            }
+        }
+    }
+
+    /**
+     * Digests the paths, sizes and contents of the files to be packaged, reusing the content
+     * hashes of a previous fingerprint for files whose size and modification time match.
+     */
+    private Fingerprint fingerprint(SortedMap<String, Path> entries, Fingerprint previous)
+            throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(Synchronizer.DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(policy.toString().getBytes(StandardCharsets.UTF_8));
+        // archives created without validation must not pass for validated ones
+        digest.update((byte) (validator == null ? 0 : 1));
+
+        final Map<String, FileState> files = new HashMap<>();
+        for (Map.Entry<String, Path> entry : entries.entrySet()) {
+            final String name = entry.getKey();
+            digest.update((byte) 0);
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+
+            final BasicFileAttributes attrs =
+                    Files.readAttributes(entry.getValue(), BasicFileAttributes.class);
+            if (attrs.isDirectory()) {
+                continue;
+            }
+            final long lastModified = attrs.lastModifiedTime().toMillis();
+            final FileState recorded = (previous == null ? null : previous.files.get(name));
+            final byte[] hash = (recorded != null && recorded.size == attrs.size()
+                    && recorded.lastModified == lastModified
+                    ? recorded.hash : Synchronizer.digest(entry.getValue()));
+            files.put(name, new FileState(attrs.size(), lastModified, hash));
+
+            digest.update((byte) 0);
+            digest.update(Long.toString(attrs.size()).getBytes(StandardCharsets.UTF_8));
+            digest.update(hash);
+        }
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return new Fingerprint(hex.toString(), files, -1, -1);
+    }
+
+    private Fingerprint readFingerprint() {
+        final File fingerprintFile = fingerprintFile();
+        if (!fingerprintFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(fingerprintFile.toPath())))) {
+            if (in.readInt() != FINGERPRINT_MAGIC || in.readInt() != FINGERPRINT_VERSION) {
+                return null;
+            }
+            final String digest = in.readUTF();
+            final long xarSize = in.readLong();
+            final long xarModified = in.readLong();
+            final Map<String, FileState> files = new HashMap<>();
+            for (int fc = in.readInt(); fc > 0; fc--) {
+                final String name = in.readUTF();
+                final long size = in.readLong();
+                final long lastModified = in.readLong();
+                final byte[] hash = new byte[in.readUnsignedShort()];
+                in.readFully(hash);
+                files.put(name, new FileState(size, lastModified, hash));
+            }
+            return new Fingerprint(digest, files, xarSize, xarModified);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeFingerprint(Fingerprint fingerprint) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(fingerprintFile().toPath())))) {
+            out.writeInt(FINGERPRINT_MAGIC);
+            out.writeInt(FINGERPRINT_VERSION);
+            out.writeUTF(fingerprint.digest);
+            out.writeLong(xarFile.length());
+            out.writeLong(xarFile.lastModified());
+            out.writeInt(fingerprint.files.size());
+            for (Map.Entry<String, FileState> file : fingerprint.files.entrySet()) {
+                out.writeUTF(file.getKey());
+                out.writeLong(file.getValue().size);
+                out.writeLong(file.getValue().lastModified);
+                out.writeShort(file.getValue().hash.length);
+                out.write(file.getValue().hash);
+            }
+        }
+    }
+
+    private static class Fingerprint {
+
+        private final String digest;
+        private final Map<String, FileState> files;
+        private final long xarSize;
+        private final long xarModified;
+
+        private Fingerprint(String digest, Map<String, FileState> files,
+                            long xarSize, long xarModified) {
+            this.digest = digest;
+            this.files = files;
+            this.xarSize = xarSize;
+            this.xarModified = xarModified;
+        }
+    }
+
+    private static class FileState {
+
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        private FileState(long size, long lastModified, byte[] hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private static class Compressed {
+
+        private final ZipArchiveEntry entry;
+        private final boolean reused;
+        private final byte[] data;
+        private final Path file;
+        private final boolean temporary;
+
+        private Compressed(ZipArchiveEntry entry, boolean reused,
+                           byte[] data, Path file, boolean temporary) {
+            this.entry = entry;
+            this.reused = reused;
+            this.data = data;
+            this.file = file;
+            this.temporary = temporary;
+        }
+
+        private void cleanup() throws IOException {
+            if (temporary && file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static class IndexEntry {
+
+        private final long size;
+        private final long lastModified;
+
+        private IndexEntry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -20,15 +20,13 @@ package net.middell;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.archiver.Archiver;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Packages all resources of the project into a XAR archive.
@@ -41,9 +39,6 @@ import java.io.IOException;
 @Mojo(name = "xar")
 public class XarMojo extends AbstractMojo {
 
-    @Component(role = Archiver.class, hint = "zip")
-    private ZipArchiver zipArchiver;
-
     /**
      * The package file to be created.
      */
@@ -52,6 +47,98 @@ public class XarMojo extends AbstractMojo {
             required = true)
     private File xarFile;
 
+    /**
+     * Whether to package incrementally.
+     *
+     * <p>In incremental mode, an index of packaged files is kept next to the package file, and
+     * compressed entries of unchanged files are copied from the previous package file instead of
+     * compressing the files again.</p>
+     */
+    @Parameter(defaultValue = "false")
+    private boolean incremental;
+
+    /**
+     * The number of files to be compressed concurrently.
+     *
+     * <p>The resulting package file does not depend on the number of threads.</p>
+     */
+    @Parameter(defaultValue = "1")
+    private int compressionThreads;
+
+    /**
+     * Compression levels for files matching glob patterns, the first matching rule taking
+     * precedence.
+     *
+     * <p>Patterns without a slash are matched against file names, all others against paths
+     * relative to the package root. Levels range from 0, storing files without compression, to
+     * 9.</p>
+     *
+     * <pre>
+     * &lt;compressionRules&gt;
+     *   &lt;compressionRule&gt;
+     *     &lt;pattern&gt;*.svg&lt;/pattern&gt;
+     *     &lt;level&gt;9&lt;/level&gt;
+     *   &lt;/compressionRule&gt;
+     * &lt;/compressionRules&gt;
+     * </pre>
+     */
+    @Parameter
+    private List<CompressionRule> compressionRules;
+
+    /**
+     * Whether to store files of already compressed types like images, fonts and archives
+     * without compression, unless they match a compression rule.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean storeCompressedTypes;
+
+    /**
+     * The size in bytes up to which files are stored without compression if deflating them does
+     * not shrink them to the given ratio; 0 disables this check.
+     */
+    @Parameter(defaultValue = "0")
+    private long compressionSmallFileSize;
+
+    /**
+     * The maximum ratio of compressed to uncompressed size, small files have to be deflated to.
+     */
+    @Parameter(defaultValue = "0.9")
+    private double compressionMaxRatio;
+
+    /**
+     * Whether to create the package file even if the packaged files are unchanged.
+     *
+     * <p>Otherwise, a fingerprint of the packaged files' paths, sizes and content hashes is kept
+     * next to the package file, and packaging is skipped as long as neither the fingerprint nor
+     * the package file have changed.</p>
+     */
+    @Parameter(defaultValue = "false")
+    private boolean forceCreation;
+
+    /**
+     * Whether to validate the package while creating it.
+     *
+     * <p>XML files are checked for well-formedness, and the descriptors
+     * <code>expath-pkg.xml</code> and <code>repo.xml</code> for the information required to
+     * install the package. Validation runs concurrently with compression; invalid packages fail
+     * the build before they are deployed.</p>
+     */
+    @Parameter(defaultValue = "true")
+    private boolean validate;
+
+    /**
+     * The number of files to be validated concurrently.
+     */
+    @Parameter(defaultValue = "1")
+    private int validationThreads;
+
+    /**
+     * The directory into which metrics of packaging are written, as a JSON document named after
+     * the goal.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/existdb-metrics", required = true)
+    private File metricsDirectory;
+
     @Parameter(
             defaultValue = "${project}",
             readonly = true,
@@ -60,12 +147,54 @@ public class XarMojo extends AbstractMojo {
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        try {
-            zipArchiver.addDirectory(new File(project.getBuild().getOutputDirectory()));
-            zipArchiver.setDestFile(xarFile);
-            zipArchiver.createArchive();
+        try (XarValidator validator = (validate
+                ? new XarValidator(validationThreads) : null)) {
+            final XarArchiver archiver = new XarArchiver(
+                    new File(project.getBuild().getOutputDirectory()),
+                    xarFile,
+                    getLog()
+            );
+            archiver.setIncremental(incremental);
+            archiver.setThreads(compressionThreads);
+            archiver.setPolicy(policy());
+            archiver.setUpToDateCheck(!forceCreation);
+            archiver.setValidator(validator);
+
+            final Metrics metrics = new Metrics();
+            archiver.setMetrics(metrics);
+            archiver.createArchive();
+
+            getLog().info(metrics.summary());
+            final File report = new File(metricsDirectory, "xar.json");
+            try {
+                metrics.writeReport(report.toPath(), "xar");
+            } catch (IOException e) {
+                getLog().warn(String.format("Cannot write metrics to '%s'", report), e);
+            }
+        } catch (XarValidator.ValidationException e) {
+            for (String error : e.errors()) {
+                getLog().error(error);
+            }
+            throw new MojoFailureException(String.format(
+                    "Invalid package: %d invalid entries", e.errors().size()
+            ), e);
         } catch (IOException e) {
             throw new MojoExecutionException("Error building XAR", e);
         }
     }
+
+    private CompressionPolicy policy() throws MojoExecutionException {
+        final CompressionPolicy policy = new CompressionPolicy();
+        policy.setStoreCompressedTypes(storeCompressedTypes);
+        policy.setSmallFileSize(compressionSmallFileSize);
+        policy.setMaxRatio(compressionMaxRatio);
+        try {
+            if (compressionRules != null) {
+                compressionRules.forEach(policy::addRule);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        return policy;
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Validates the entries of a XAR archive before it is deployed.
+ *
+ * <p>XML entries are checked for well-formedness; the package descriptor
+ * <code>expath-pkg.xml</code>, which is mandatory, and the optional application descriptor
+ * <code>repo.xml</code> are checked for the root element and the attributes and elements an
+ * eXist-db instance requires for installing the package. Entries are parsed on a pool of worker
+ * threads, so that validation runs concurrently with compressing the archive; no external
+ * entities or DTDs are loaded.</p>
+ *
+ * @see XarArchiver#setValidator(XarValidator)
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class XarValidator implements AutoCloseable {
+
+    /**
+     * Name of the package descriptor.
+     */
+    public static final String PACKAGE_DESCRIPTOR = "expath-pkg.xml";
+
+    /**
+     * Name of the application descriptor.
+     */
+    public static final String REPO_DESCRIPTOR = "repo.xml";
+
+    private static final String PACKAGE_NS = "http://expath.org/ns/pkg";
+    private static final String REPO_NS = "http://exist-db.org/xquery/repo";
+    private static final String LOAD_EXTERNAL_DTD =
+            "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    private final ExecutorService executor;
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+    private boolean packageDescriptor;
+
+    /**
+     * Signals an invalid package.
+     */
+    public static class ValidationException extends IOException {
+
+        private final List<String> errors;
+
+        private ValidationException(List<String> errors) {
+            super(String.format(
+                    "%d invalid entries: %s", errors.size(), String.join("; ", errors)
+            ));
+            this.errors = errors;
+        }
+
+        /**
+         * The errors found while validating the package.
+         *
+         * @return one message per invalid entry
+         */
+        public List<String> errors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Creates a validator.
+     *
+     * @param threads the number of entries to be parsed concurrently
+     */
+    public XarValidator(int threads) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * Schedules the validation of an XML entry.
+     *
+     * @param name the path of the entry, relative to the archive's root
+     * @param file the file holding the entry's content
+     */
+    public void submit(String name, Path file) {
+        if (PACKAGE_DESCRIPTOR.equals(name)) {
+            packageDescriptor = true;
+        }
+        pending.add(executor.submit(() -> {
+            try {
+                validate(name, file);
+            } catch (SAXParseException e) {
+                errors.add(String.format(
+                        "%s:%d:%d: %s", name, e.getLineNumber(), e.getColumnNumber(),
+                        e.getMessage()
+                ));
+            } catch (SAXException | IOException | IllegalArgumentException e) {
+                errors.add(String.format("%s: %s", name, e.getMessage()));
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Determines whether any of the entries validated so far is invalid.
+     *
+     * @return <code>true</code> if errors have been found, so that packaging can be aborted
+     */
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * Waits for all scheduled validations to complete.
+     *
+     * @throws ValidationException in case any entry is invalid or, with all submitted entries
+     *                             being valid, the package descriptor is missing
+     * @throws IOException         in case the validating thread has been interrupted
+     */
+    public void finish() throws IOException {
+        for (Future<?> validation : pending) {
+            try {
+                validation.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                errors.add(String.valueOf(e.getCause()));
+            }
+        }
+        pending.clear();
+        if (errors.isEmpty() && !packageDescriptor) {
+            errors.add(PACKAGE_DESCRIPTOR + ": missing");
+        }
+        if (!errors.isEmpty()) {
+            final List<String> found = new ArrayList<>(errors);
+            Collections.sort(found);
+            throw new ValidationException(found);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static void validate(String name, Path file)
+            throws SAXException, IOException {
+        switch (name) {
+            case PACKAGE_DESCRIPTOR:
+                final Element pkg = root(file, PACKAGE_NS, "package");
+                for (String attribute : new String[] { "name", "abbrev", "version" }) {
+                    if (pkg.getAttribute(attribute).trim().isEmpty()) {
+                        throw new IllegalArgumentException(
+                                String.format("<package/> has no '%s' attribute", attribute)
+                        );
+                    }
+                }
+                break;
+            case REPO_DESCRIPTOR:
+                final Element meta = root(file, REPO_NS, "meta");
+                final String type = child(meta, "type");
+                if (type != null && !type.equals("application") && !type.equals("library")) {
+                    throw new IllegalArgumentException(
+                            String.format("Unknown package type '%s'", type)
+                    );
+                }
+                if ("application".equals(type) && child(meta, "target") == null) {
+                    throw new IllegalArgumentException("Application without <target/>");
+                }
+                break;
+            default:
+                try (InputStream in = Files.newInputStream(file)) {
+                    final InputSource source = new InputSource(in);
+                    source.setSystemId(file.toUri().toString());
+                    saxParser().parse(source, new DefaultHandler() {
+                        @Override
+                        public InputSource resolveEntity(String publicId, String systemId) {
+                            return new InputSource(new StringReader(""));
+                        }
+                    });
+                }
+        }
+    }
+
+    private static Element root(Path file, String ns, String localName)
+            throws SAXException, IOException {
+        final Element root;
+        try (InputStream in = Files.newInputStream(file)) {
+            root = documentBuilder().parse(in).getDocumentElement();
+        }
+        if (!ns.equals(root.getNamespaceURI()) || !localName.equals(root.getLocalName())) {
+            throw new IllegalArgumentException(String.format(
+                    "Root element is not <%s xmlns=\"%s\"/>", localName, ns
+            ));
+        }
+        return root;
+    }
+
+    private static String child(Element parent, String localName) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && localName.equals(child.getLocalName())) {
+                final String text = child.getTextContent().trim();
+                return (text.isEmpty() ? null : text);
+            }
+        }
+        return null;
+    }
+
+    private static SAXParser saxParser() throws SAXException {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            factory.setFeature(LOAD_EXTERNAL_DTD, false);
+            return factory.newSAXParser();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    private static DocumentBuilder documentBuilder() throws SAXException {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            factory.setFeature(LOAD_EXTERNAL_DTD, false);
+            final DocumentBuilder builder = factory.newDocumentBuilder();
+            builder.setEntityResolver((publicId, systemId) ->
+                    new InputSource(new StringReader("")));
+            return builder;
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.zip.Deflater;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class CompressionPolicyTest {
+
+    @Test
+    public void storesCompressedTypes() {
+        final CompressionPolicy policy = new CompressionPolicy();
+        Assert.assertEquals(CompressionPolicy.STORED, policy.level("resources/logo.PNG"));
+        Assert.assertEquals(Deflater.DEFAULT_COMPRESSION, policy.level("modules/app.xql"));
+
+        policy.setStoreCompressedTypes(false);
+        Assert.assertEquals(Deflater.DEFAULT_COMPRESSION, policy.level("resources/logo.png"));
+    }
+
+    @Test
+    public void firstMatchingRuleApplies() {
+        final CompressionPolicy policy = new CompressionPolicy();
+        policy.addRule(rule("resources/fonts/**", 0));
+        policy.addRule(rule("*.svg", 9));
+        policy.addRule(rule("*.png", 1));
+
+        Assert.assertEquals(0, policy.level("resources/fonts/icons.svg"));
+        Assert.assertEquals(9, policy.level("resources/images/icon.svg"));
+        Assert.assertEquals(1, policy.level("icon.png"));
+    }
+
+    @Test
+    public void smallFilesNeedSufficientRatio() {
+        final CompressionPolicy policy = new CompressionPolicy();
+        Assert.assertTrue(policy.keepDeflated(100, 100));
+
+        policy.setSmallFileSize(1024);
+        Assert.assertFalse(policy.keepDeflated(100, 95));
+        Assert.assertTrue(policy.keepDeflated(100, 50));
+        Assert.assertTrue(policy.keepDeflated(2048, 2000));
+    }
+
+    private static CompressionRule rule(String pattern, int level) {
+        final CompressionRule rule = new CompressionRule();
+        rule.pattern = pattern;
+        rule.level = level;
+        return rule;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void limitGrowsWhileMadeUseOf() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, 2.0);
+        for (int rc = 0; rc < 20; rc++) {
+            limiter.acquire();
+            limiter.release("fetch", 1000, false);
+        }
+        Assert.assertTrue(limiter.limit() < 4);
+
+        for (int rc = 0; rc < 20; rc++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release("fetch", 1000, false);
+            limiter.release("fetch", 1000, false);
+        }
+        Assert.assertEquals(4, limiter.limit());
+    }
+
+    @Test
+    public void limitShrinksWithSlowOrFailedResponses() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4, 2.0);
+        limiter.acquire();
+        limiter.release("fetch", 1000, false);
+        for (int rc = 0; rc < 5; rc++) {
+            limiter.acquire();
+            limiter.release("fetch", 10000, false);
+        }
+        Assert.assertTrue(limiter.limit() < 4);
+
+        for (int rc = 0; rc < 10; rc++) {
+            limiter.acquire();
+            limiter.release("list", 1000, true);
+        }
+        Assert.assertEquals(1, limiter.limit());
+    }
+
+    @Test
+    public void payloadDependentLatenciesAreIgnored() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4, 2.0);
+        limiter.acquire();
+        limiter.release(null, 1000, false);
+        for (int rc = 0; rc < 5; rc++) {
+            limiter.acquire();
+            limiter.release(null, 1000000, false);
+        }
+        Assert.assertEquals(4, limiter.limit());
+    }
+}
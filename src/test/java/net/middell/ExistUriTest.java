@@ -50,6 +50,19 @@ public class ExistUriTest {
         roundtrip("xmldb:exist://xmldb.test.com:8080/");
     }
 
+    @Test
+    public void embeddedUrisResolve() {
+        final URI collection = ExistUri.create("xmldb:exist:///db/apps/");
+        Assert.assertEquals(
+                "xmldb:exist:///db/apps/test/",
+                ExistUri.toString(collection.resolve("test/"))
+        );
+        Assert.assertEquals(
+                "xmldb:exist:///db/",
+                ExistUri.toString(collection.resolve(".."))
+        );
+    }
+
     protected void roundtrip(String uri) {
         final URI existUri = ExistUri.create(uri);
         Assert.assertEquals(uri, ExistUri.toString(existUri));
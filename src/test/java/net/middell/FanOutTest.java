@@ -0,0 +1,82 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class FanOutTest {
+
+    @Test
+    public void failuresDoNotAbortOtherTargets() throws Exception {
+        final List<ServerTarget> targets = targets("node1", "node2", "node3");
+        final Set<String> processed = ConcurrentHashMap.newKeySet();
+
+        final FanOut fanOut = new FanOut(new SystemStreamLog());
+        fanOut.setParallelism(2);
+        try {
+            fanOut.run(targets, (target, log) -> {
+                processed.add(target.serverId);
+                if (!"node3".equals(target.serverId)) {
+                    throw new IOException(target.serverId);
+                }
+            });
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("node1", e.getMessage());
+            Assert.assertEquals(1, e.getSuppressed().length);
+        }
+        Assert.assertEquals(3, processed.size());
+    }
+
+    @Test
+    public void failingCanarySkipsOtherTargets() throws Exception {
+        final Set<String> processed = ConcurrentHashMap.newKeySet();
+
+        final FanOut fanOut = new FanOut(new SystemStreamLog());
+        fanOut.setCanaryFirst(true);
+        try {
+            fanOut.run(targets("node1", "node2"), (target, log) -> {
+                processed.add(target.serverId);
+                throw new IOException(target.serverId);
+            });
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("node1", e.getMessage());
+        }
+        Assert.assertEquals(1, processed.size());
+    }
+
+    private static List<ServerTarget> targets(String... serverIds) {
+        return Arrays.stream(serverIds).map(serverId -> {
+            final ServerTarget target = new ServerTarget();
+            target.serverId = serverId;
+            return target;
+        }).collect(Collectors.toList());
+    }
+}
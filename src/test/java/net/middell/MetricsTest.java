@@ -0,0 +1,66 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class MetricsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void countersAreSummed() {
+        final Metrics metrics = new Metrics();
+        metrics.count(Metrics.ROUND_TRIPS, 2);
+        metrics.count(Metrics.ROUND_TRIPS, 3);
+        Assert.assertEquals(5, metrics.get(Metrics.ROUND_TRIPS));
+        Assert.assertEquals(0, metrics.get("bytesFetched"));
+        Assert.assertEquals("roundTrips=5", metrics.summary());
+    }
+
+    @Test
+    public void report() throws IOException {
+        final Metrics metrics = new Metrics();
+        metrics.count("bytesFetched", 1024);
+        for (int sc = 0; sc < 20; sc++) {
+            metrics.record("fetch", metrics.start(), "/db/apps/\"" + sc + "\".xml");
+        }
+
+        final Path report = tmp.getRoot().toPath().resolve("metrics/sync.json");
+        metrics.writeReport(report, "sync");
+
+        final String json = new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.contains("\"goal\": \"sync\""));
+        Assert.assertTrue(json.contains("\"bytesFetched\": 1024"));
+        Assert.assertTrue(json.contains("\"fetch\": {"));
+        Assert.assertTrue(json.contains("\"count\": 20"));
+        Assert.assertTrue(json.contains("/db/apps/\\\"0\\\".xml"));
+        Assert.assertTrue(metrics.latencies().startsWith("fetch p50="));
+    }
+}
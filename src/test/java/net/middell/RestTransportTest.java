@@ -0,0 +1,195 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class RestTransportTest {
+
+    private static final byte[] CONTENT = "<test>content</test>".getBytes(StandardCharsets.UTF_8);
+
+    private static final long LAST_MODIFIED = 1420070400000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private URI collection;
+    private volatile Headers request;
+    private volatile URI requestUri;
+    private final Map<String, byte[]> stored = new ConcurrentHashMap<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/exist/rest/db/", this::handle);
+        server.start();
+        collection = URI.create(String.format(
+                "//127.0.0.1:%d/exist/xmlrpc/db/apps/", server.getAddress().getPort()
+        ));
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void endpoints() {
+        final RestTransport transport = new RestTransport("http", "admin", "");
+        Assert.assertEquals(
+                URI.create("https://localhost:8443/exist/rest/db/apps/test.xml"),
+                new RestTransport("https", "admin", "").endpoint(ExistUri.create(
+                        "xmldb:exist://localhost:8443/exist/xmlrpc/db/apps/test.xml"
+                ))
+        );
+        Assert.assertFalse(transport.supports(ExistUri.create("xmldb:exist:///db/apps/")));
+        Assert.assertTrue(transport.supports(collection));
+    }
+
+    @Test
+    public void fetchesGzipEncodedContent() throws IOException {
+        final RestTransport transport = new RestTransport("http", "admin", "secret");
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        Assert.assertTrue(transport.fetch(collection.resolve("test.xml"), -1, content));
+        Assert.assertArrayEquals(CONTENT, content.toByteArray());
+        Assert.assertEquals("gzip", request.getFirst("Accept-Encoding"));
+        Assert.assertTrue(request.getFirst("Authorization").startsWith("Basic "));
+    }
+
+    @Test
+    public void passesSerializationOptions() throws IOException {
+        final RestTransport transport = new RestTransport("http", "admin", "");
+        transport.setOutputProperties(Collections.singletonMap("indent", "no"));
+        Assert.assertTrue(transport.fetch(
+                collection.resolve("test.xml"), -1, new ByteArrayOutputStream()
+        ));
+        Assert.assertEquals("_indent=no", requestUri.getQuery());
+    }
+
+    @Test
+    public void conditionalFetches() throws IOException {
+        final RestTransport transport = new RestTransport("http", "admin", "");
+        final URI resource = collection.resolve("test.xml");
+        Assert.assertTrue(transport.fetch(resource, -1, new ByteArrayOutputStream()));
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        Assert.assertFalse(transport.fetch(resource, LAST_MODIFIED, content));
+        Assert.assertEquals(0, content.size());
+        Assert.assertEquals("\"v1\"", request.getFirst("If-None-Match"));
+
+        Assert.assertTrue(transport.fetch(resource, LAST_MODIFIED - 60000, content));
+        Assert.assertArrayEquals(CONTENT, content.toByteArray());
+    }
+
+    @Test
+    public void storesRawContent() throws IOException {
+        final Path file = tmp.newFile("test.bin").toPath();
+        Files.write(file, new byte[] { 0, 1, 2, (byte) 0xff });
+
+        new RestTransport("http", "admin", "").store(
+                collection.resolve("test.bin"), file, "application/octet-stream"
+        );
+        Assert.assertArrayEquals(new byte[] { 0, 1, 2, (byte) 0xff }, stored.get("test.bin"));
+        Assert.assertEquals("application/octet-stream", request.getFirst("Content-Type"));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingResources() throws IOException {
+        new RestTransport("http", "admin", "").fetch(
+                collection.resolve("missing.xml"), -1, new ByteArrayOutputStream()
+        );
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        request = exchange.getRequestHeaders();
+        requestUri = exchange.getRequestURI();
+        final String path = exchange.getRequestURI().getPath();
+        final String name = path.substring(path.lastIndexOf('/') + 1);
+        try {
+            switch (exchange.getRequestMethod()) {
+                case "PUT":
+                    try (InputStream in = exchange.getRequestBody()) {
+                        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                        final byte[] buf = new byte[1024];
+                        for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+                            body.write(buf, 0, read);
+                        }
+                        stored.put(name, body.toByteArray());
+                    }
+                    exchange.sendResponseHeaders(201, -1);
+                    break;
+                case "GET":
+                    if (!"test.xml".equals(name)) {
+                        exchange.sendResponseHeaders(404, -1);
+                        break;
+                    }
+                    final String etag = request.getFirst("If-None-Match");
+                    final String since = request.getFirst("If-Modified-Since");
+                    if ("\"v1\"".equals(etag) || (since != null && LAST_MODIFIED <= Instant.from(
+                            DateTimeFormatter.RFC_1123_DATE_TIME.parse(since)).toEpochMilli())) {
+                        exchange.sendResponseHeaders(304, -1);
+                        break;
+                    }
+                    exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                    exchange.getResponseHeaders().add(
+                            "Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                                    Instant.ofEpochMilli(LAST_MODIFIED).atZone(ZoneOffset.UTC))
+                    );
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                        out.write(CONTENT);
+                    }
+                    break;
+                default:
+                    exchange.sendResponseHeaders(405, -1);
+                    break;
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
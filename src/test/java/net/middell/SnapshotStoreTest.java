@@ -0,0 +1,76 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundtrip() throws IOException {
+        final SnapshotStore store = new SnapshotStore(tmp.getRoot().toPath().resolve("snapshots"));
+        final Path home = home("v1");
+        final Path restored = tmp.getRoot().toPath().resolve("restored");
+
+        Assert.assertFalse(store.restore("key", restored));
+        store.store("key", home);
+
+        Assert.assertTrue(store.restore("key", restored));
+        Assert.assertEquals("v1", content(restored));
+    }
+
+    @Test
+    public void snapshotsAreImmutable() throws IOException {
+        final SnapshotStore store = new SnapshotStore(tmp.getRoot().toPath().resolve("snapshots"));
+        final Path restored = tmp.getRoot().toPath().resolve("restored");
+
+        store.store("key", home("v1"));
+        Assert.assertTrue(store.restore("key", restored));
+        Files.write(restored.resolve("data/dom.dbx"), "modified".getBytes(StandardCharsets.UTF_8));
+        store.store("key", home("v2"));
+
+        SnapshotStore.delete(restored);
+        Assert.assertTrue(store.restore("key", restored));
+        Assert.assertEquals("v1", content(restored));
+    }
+
+    private Path home(String content) throws IOException {
+        final Path home = tmp.newFolder().toPath();
+        Files.createDirectories(home.resolve("data"));
+        Files.write(home.resolve("data/dom.dbx"), content.getBytes(StandardCharsets.UTF_8));
+        return home;
+    }
+
+    private static String content(Path home) throws IOException {
+        return new String(Files.readAllBytes(home.resolve("data/dom.dbx")), StandardCharsets.UTF_8);
+    }
+}
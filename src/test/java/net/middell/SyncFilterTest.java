@@ -0,0 +1,89 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class SyncFilterTest {
+
+    private static final URI ROOT = ExistUri.create("xmldb:exist:///db/apps/test/");
+
+    @Test
+    public void firstMatchingRuleDecides() {
+        final SyncFilter filter = filter(
+                include("data/keep.xml"),
+                exclude("data/*.xml"),
+                exclude("regex:.*\\.(tmp|bak)")
+        );
+        Assert.assertFalse(filter.excludes(ROOT.resolve("data/keep.xml")));
+        Assert.assertTrue(filter.excludes(ROOT.resolve("data/drop.xml")));
+        Assert.assertFalse(filter.excludes(ROOT.resolve("data/sub/drop.xml")));
+        Assert.assertTrue(filter.excludes(ROOT.resolve("a/b/c.bak")));
+        Assert.assertFalse(filter.excludes(ROOT.resolve("a/b/c.xml")));
+    }
+
+    @Test
+    public void collectionRules() {
+        final SyncFilter filter = filter(exclude("cache/"), exclude("data/**/tmp/"));
+        Assert.assertTrue(filter.excludes(ROOT.resolve("cache/")));
+        Assert.assertTrue(filter.excludes(ROOT.resolve("a/b/cache/")));
+        Assert.assertFalse(filter.excludes(ROOT.resolve("a/b/cache")));
+        Assert.assertTrue(filter.excludes(ROOT.resolve("data/tmp/")));
+        Assert.assertTrue(filter.excludes(ROOT.resolve("data/x/y/tmp/")));
+        Assert.assertFalse(filter.excludes(ROOT.resolve("other/tmp/")));
+    }
+
+    @Test
+    public void literalExclusionsAreSkippedServerSide() {
+        final SyncFilter filter = filter(
+                include("data/protected/"),
+                exclude("data/protected/"),
+                exclude("data/cache/"),
+                exclude("**/tmp/")
+        );
+        Assert.assertEquals(
+                Collections.singleton(ROOT.resolve("data/cache/")),
+                filter.excludedCollections()
+        );
+    }
+
+    private static SyncFilter filter(SyncRule... rules) {
+        final List<SyncRule> ruleList = Arrays.asList(rules);
+        return new SyncFilter(ruleList, Collections.singleton(ROOT));
+    }
+
+    private static SyncRule include(String pattern) {
+        final SyncRule rule = new SyncRule();
+        rule.include = pattern;
+        return rule;
+    }
+
+    private static SyncRule exclude(String pattern) {
+        final SyncRule rule = new SyncRule();
+        rule.exclude = pattern;
+        return rule;
+    }
+}
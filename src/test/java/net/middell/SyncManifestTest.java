@@ -0,0 +1,109 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class SyncManifestTest {
+
+    private static final URI RESOURCE = ExistUri.create("xmldb:exist:///db/apps/test.xml");
+
+    private static final byte[] FINGERPRINT = { 1, 2, 3 };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundtrip() throws IOException {
+        final Path manifestFile = tmp.getRoot().toPath().resolve("sync.manifest");
+        final File target = target();
+
+        final SyncManifest manifest = SyncManifest.load(manifestFile, FINGERPRINT);
+        Assert.assertFalse(manifest.isCurrent(RESOURCE, 1000, 10, target));
+        manifest.update(RESOURCE, 1000, 10, target, new byte[] { 42 });
+        manifest.store();
+
+        final SyncManifest loaded = SyncManifest.load(manifestFile, FINGERPRINT);
+        Assert.assertTrue(loaded.isCurrent(RESOURCE, 1000, 10, target));
+        Assert.assertFalse(loaded.isCurrent(RESOURCE, 2000, 10, target));
+        Assert.assertArrayEquals(new byte[] { 42 }, loaded.get(RESOURCE).hash());
+    }
+
+    @Test
+    public void invalidatedByFingerprint() throws IOException {
+        final Path manifestFile = tmp.getRoot().toPath().resolve("sync.manifest");
+        final File target = target();
+
+        final SyncManifest manifest = SyncManifest.load(manifestFile, FINGERPRINT);
+        manifest.update(RESOURCE, 1000, 10, target, new byte[0]);
+        manifest.store();
+
+        Assert.assertNull(SyncManifest.load(manifestFile, new byte[] { 4 }).get(RESOURCE));
+    }
+
+    @Test
+    public void unvisitedEntriesAreDropped() throws IOException {
+        final Path manifestFile = tmp.getRoot().toPath().resolve("sync.manifest");
+
+        final SyncManifest manifest = SyncManifest.load(manifestFile, FINGERPRINT);
+        manifest.update(RESOURCE, 1000, 10, target(), new byte[0]);
+        manifest.store();
+
+        SyncManifest.load(manifestFile, FINGERPRINT).store();
+        Assert.assertNull(SyncManifest.load(manifestFile, FINGERPRINT).get(RESOURCE));
+    }
+
+    @Test
+    public void retainedSubtreesAreKept() throws IOException {
+        final Path manifestFile = tmp.getRoot().toPath().resolve("sync.manifest");
+        final URI collection = ExistUri.create("xmldb:exist:///db/apps/");
+        final URI sibling = ExistUri.create("xmldb:exist:///db/data/test.xml");
+        final File target = target();
+
+        final SyncManifest manifest = SyncManifest.load(manifestFile, FINGERPRINT);
+        manifest.update(RESOURCE, 1000, 10, target, new byte[0]);
+        manifest.update(sibling, 1000, 10, target, new byte[0]);
+        manifest.store();
+
+        final SyncManifest retained = SyncManifest.load(manifestFile, FINGERPRINT);
+        retained.retain(collection);
+        retained.store();
+
+        final SyncManifest loaded = SyncManifest.load(manifestFile, FINGERPRINT);
+        Assert.assertNotNull(loaded.get(RESOURCE));
+        Assert.assertNull(loaded.get(sibling));
+    }
+
+    private File target() throws IOException {
+        final File target = tmp.newFile("test.xml");
+        Files.write(target.toPath(), "<test/>".getBytes(StandardCharsets.UTF_8));
+        return target;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class XQSuiteReportTest {
+
+    private static final String SUITE = String.join("\n",
+            "<testsuites>",
+            "  <testsuite package=\"http://example.org/tests\" tests=\"3\" failures=\"1\"",
+            "             errors=\"0\" pending=\"1\" time=\"PT0.25S\">",
+            "    <testcase name=\"add\" class=\"t:add\"/>",
+            "    <testcase name=\"subtract\" class=\"t:subtract\">",
+            "      <failure message=\"assertEquals failed.\"",
+            "               type=\"failure-error-code-1\">1</failure>",
+            "      <output>2</output>",
+            "    </testcase>",
+            "    <testcase name=\"divide\" class=\"t:divide\"><pending/></testcase>",
+            "  </testsuite>",
+            "</testsuites>"
+    );
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void suite() throws IOException {
+        final XQSuiteReport report = new XQSuiteReport("apps.test.math");
+        report.add(SUITE, 1000);
+
+        Assert.assertEquals(3, report.tests());
+        Assert.assertEquals(1, report.failures());
+        Assert.assertEquals(0, report.errors());
+        Assert.assertEquals(1, report.skipped());
+        Assert.assertEquals(250, report.millis());
+
+        final Path file = report.write(tmp.getRoot().toPath());
+        Assert.assertEquals("TEST-apps.test.math.xml", file.getFileName().toString());
+        final String xml = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Assert.assertTrue(xml.contains("tests=\"3\""));
+        Assert.assertTrue(xml.contains("<failure type=\"failure-error-code-1\""));
+        Assert.assertTrue(xml.contains("<system-out>2</system-out>"));
+        Assert.assertTrue(xml.contains("classname=\"apps.test.math\""));
+    }
+
+    @Test
+    public void singleFunctionsAreTimed() {
+        final XQSuiteReport report = new XQSuiteReport("apps.test.math");
+        report.add("<testsuites><testsuite><testcase name=\"add\"/></testsuite></testsuites>", 42);
+        report.addError("divide", new IllegalStateException("timeout"), 100);
+
+        Assert.assertEquals(2, report.tests());
+        Assert.assertEquals(1, report.errors());
+        Assert.assertEquals(142, report.millis());
+    }
+
+    @Test
+    public void suiteNames() {
+        Assert.assertEquals("apps.myapp.tests.utils",
+                XQSuiteMojo.suiteName("/db/apps/myapp/tests/utils.xqm"));
+        Assert.assertEquals("apps.my_app.tests",
+                XQSuiteMojo.suiteName("/db/apps/my app/tests"));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.middell;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class XarArchiverTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void incrementalRebuildCopiesUnchangedEntries() throws IOException {
+        final File directory = tree();
+        final File xarFile = new File(tmp.getRoot(), "incremental.xar");
+        archive(directory, xarFile, true, new Metrics());
+
+        final Metrics metrics = new Metrics();
+        archive(directory, xarFile, true, metrics);
+        Assert.assertEquals(3, metrics.get("entriesReused"));
+        Assert.assertEquals(0, metrics.get("entriesDeflated"));
+    }
+
+    @Test
+    public void modifiedFilesAreDeflatedAgain() throws IOException {
+        final File directory = tree();
+        final File xarFile = new File(tmp.getRoot(), "incremental.xar");
+        archive(directory, xarFile, true, new Metrics());
+
+        final Path modified = directory.toPath().resolve("data/b.xml");
+        final FileTime lastModified = Files.getLastModifiedTime(modified);
+        Files.write(modified, "<b>2</b>".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(modified, FileTime.fromMillis(lastModified.toMillis() + 2000));
+
+        final Metrics metrics = new Metrics();
+        archive(directory, xarFile, true, metrics);
+        Assert.assertEquals(2, metrics.get("entriesReused"));
+        Assert.assertEquals(1, metrics.get("entriesDeflated"));
+        Assert.assertEquals("<b>2</b>", contents(xarFile).get("data/b.xml"));
+    }
+
+    @Test
+    public void incrementalBuildMatchesFullBuild() throws IOException {
+        final File directory = tree();
+        final File incremental = new File(tmp.getRoot(), "incremental.xar");
+        archive(directory, incremental, true, new Metrics());
+
+        final Path modified = directory.toPath().resolve("data/a.xml");
+        Files.write(modified, "<a>changed</a>".getBytes(StandardCharsets.UTF_8));
+        archive(directory, incremental, true, new Metrics());
+
+        final File full = new File(tmp.getRoot(), "full.xar");
+        archive(directory, full, false, new Metrics());
+        Assert.assertEquals(contents(full), contents(incremental));
+    }
+
+    @Test
+    public void archivesAreIndependentOfThreads() throws IOException {
+        final File directory = tree();
+        // more entries than the window per thread, more bytes than the window, one spilled entry
+        for (int fc = 0; fc < 20; fc++) {
+            write(directory, "data/small-" + fc + ".xml", text(fc, 1024));
+        }
+        for (int fc = 0; fc < 6; fc++) {
+            write(directory, "data/medium-" + fc + ".txt", text(fc, 6 * 1024 * 1024));
+        }
+        write(directory, "data/large.txt", text(42, 9 * 1024 * 1024));
+
+        final File sequential = new File(tmp.getRoot(), "sequential.xar");
+        final File concurrent = new File(tmp.getRoot(), "concurrent.xar");
+        archive(directory, sequential, 1);
+        archive(directory, concurrent, 4);
+        Assert.assertArrayEquals(
+                Files.readAllBytes(sequential.toPath()),
+                Files.readAllBytes(concurrent.toPath())
+        );
+        Assert.assertEquals(
+                text(42, 9 * 1024 * 1024), contents(sequential).get("data/large.txt")
+        );
+    }
+
+    @Test
+    public void upToDateArchivesAreSkipped() throws IOException {
+        final File directory = tree();
+        final File xarFile = new File(tmp.getRoot(), "test.xar");
+        Assert.assertTrue(upToDate(directory, xarFile, new CompressionPolicy(), null));
+        Assert.assertFalse(upToDate(directory, xarFile, new CompressionPolicy(), null));
+
+        write(directory, "data/a.xml", "<a>22</a>");
+        Assert.assertTrue(upToDate(directory, xarFile, new CompressionPolicy(), null));
+        Assert.assertFalse(upToDate(directory, xarFile, new CompressionPolicy(), null));
+
+        final CompressionPolicy policy = new CompressionPolicy();
+        policy.setDefaultLevel(9);
+        Assert.assertTrue(upToDate(directory, xarFile, policy, null));
+        Assert.assertFalse(upToDate(directory, xarFile, policy, null));
+
+        try (XarValidator validator = new XarValidator(1)) {
+            Assert.assertTrue(upToDate(directory, xarFile, policy, validator));
+        }
+    }
+
+    private File tree() throws IOException {
+        final File directory = tmp.newFolder("tree");
+        write(directory, "expath-pkg.xml", "<package xmlns=\"http://expath.org/ns/pkg\" "
+                + "name=\"http://example.org/test\" abbrev=\"test\" version=\"1.0\"/>");
+        write(directory, "data/a.xml", "<a>1</a>");
+        write(directory, "data/b.xml", "<b>1</b>");
+        return directory;
+    }
+
+    private static void write(File directory, String name, String content) throws IOException {
+        final Path file = directory.toPath().resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean upToDate(File directory, File xarFile, CompressionPolicy policy,
+                                    XarValidator validator) throws IOException {
+        final XarArchiver archiver = new XarArchiver(directory, xarFile, new SystemStreamLog());
+        archiver.setUpToDateCheck(true);
+        archiver.setPolicy(policy);
+        archiver.setValidator(validator);
+        return archiver.createArchive();
+    }
+
+    private static void archive(File directory, File xarFile, int threads) throws IOException {
+        final XarArchiver archiver = new XarArchiver(directory, xarFile, new SystemStreamLog());
+        archiver.setThreads(threads);
+        archiver.createArchive();
+    }
+
+    private static void archive(File directory, File xarFile, boolean incremental, Metrics metrics)
+            throws IOException {
+        final XarArchiver archiver = new XarArchiver(directory, xarFile, new SystemStreamLog());
+        archiver.setIncremental(incremental);
+        archiver.setMetrics(metrics);
+        archiver.createArchive();
+    }
+
+    /**
+     * Generates compressible text of the given length.
+     */
+    private static String text(long seed, int length) {
+        final Random random = new Random(seed);
+        final StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(random.nextBoolean() ? ' ' : (char) ('a' + random.nextInt(8)));
+        }
+        return text.toString();
+    }
+
+    private static Map<String, String> contents(File xarFile) throws IOException {
+        final Map<String, String> contents = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(xarFile)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    final byte[] buf = new byte[8192];
+                    for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+                        content.write(buf, 0, read);
+                    }
+                }
+                contents.put(entry.getName(), content.toString("UTF-8"));
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of eXist-db Maven Plugin.
+ *
+ * eXist-db Maven Plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eXist-db Maven Plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eXist-db Maven Plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.middell;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+ */
+public class XarValidatorTest {
+
+    private static final String PACKAGE = "<package xmlns=\"http://expath.org/ns/pkg\" "
+            + "name=\"http://example.org/test\" abbrev=\"test\" version=\"1.0\"/>";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void validPackage() throws IOException {
+        try (XarValidator validator = new XarValidator(2)) {
+            validator.submit(XarValidator.PACKAGE_DESCRIPTOR, file("pkg.xml", PACKAGE));
+            validator.submit(XarValidator.REPO_DESCRIPTOR, file("repo.xml",
+                    "<meta xmlns=\"http://exist-db.org/xquery/repo\">"
+                            + "<type>application</type><target>test</target></meta>"));
+            validator.submit("data/test.xml", file("test.xml", "<test/>"));
+            validator.finish();
+        }
+    }
+
+    @Test
+    public void invalidEntries() throws IOException {
+        try (XarValidator validator = new XarValidator(2)) {
+            validator.submit(XarValidator.PACKAGE_DESCRIPTOR, file("pkg.xml",
+                    PACKAGE.replace("abbrev=\"test\"", "")));
+            validator.submit("data/test.xml", file("test.xml", "<test>"));
+            validator.finish();
+            Assert.fail();
+        } catch (XarValidator.ValidationException e) {
+            Assert.assertEquals(2, e.errors().size());
+            Assert.assertTrue(e.errors().get(0).startsWith("data/test.xml:1:"));
+            Assert.assertTrue(e.errors().get(1).contains("abbrev"));
+        }
+    }
+
+    @Test
+    public void missingDescriptor() throws IOException {
+        try (XarValidator validator = new XarValidator(1)) {
+            validator.submit("data/test.xml", file("test.xml", "<test/>"));
+            validator.finish();
+            Assert.fail();
+        } catch (XarValidator.ValidationException e) {
+            Assert.assertEquals(1, e.errors().size());
+        }
+    }
+
+    private Path file(String name, String content) throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}